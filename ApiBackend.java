@@ -0,0 +1,384 @@
+/*
+ * ScanBackend that talks to the VirusTotal REST API (v3) directly instead
+ * of driving a browser: look up the file's report by SHA-256 hash, upload
+ * the file only if VirusTotal doesn't know the hash, then poll the analysis
+ * until every engine has finished. Requests are authenticated with the
+ * x-apikey header and share one HTTP/2 client so connections are reused
+ * across files and workers; every request goes through one QuotaScheduler
+ * shared by all workers so the API key's quotas are respected.
+ */
+
+// Import libraries
+// net.http - HTTP/2 client
+// io, nio - multipart upload of the file
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+
+public class ApiBackend implements ScanBackend {
+
+    // Constants
+    public static final String DEFAULT_URL = "https://www.virustotal.com";
+    private static final String API_PATH = "/api/v3";
+    private static final String KEY_HEADER = "x-apikey";
+    private static final long DIRECT_UPLOAD_LIMIT = 32L * 1024 * 1024;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+    private static final String COMPLETED = "completed";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int MAX_QUOTA_RETRIES = 5;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // One client shared by every backend so connections are reused
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    // Instance variables
+    private final String apiUrl;    // e.g. https://www.virustotal.com/api/v3
+    private final String apiKey;    // VirusTotal API key
+    private final Waiter waiter;    // Bounds polling of analyses
+    private final QuotaScheduler quota;     // Shared by all workers
+    private final long maxUploadBytes;      // Larger files aren't uploaded
+
+    // Specified constructor talks to the API at 'baseUrl' with 'apiKey',
+    // sends requests when 'quota' allows and polls analyses within the
+    // limits of 'waiter'
+    public ApiBackend(String baseUrl, String apiKey, Waiter waiter,
+                      QuotaScheduler quota) {
+        this(baseUrl, apiKey, waiter, quota,
+             FileUpload.megabytes(FileUpload.DEFAULT_MAX_UPLOAD_MB));
+    }
+
+    // Specified constructor as above that only looks up files larger than
+    // 'maxUploadBytes' by hash, never uploading them
+    public ApiBackend(String baseUrl, String apiKey, Waiter waiter,
+                      QuotaScheduler quota, long maxUploadBytes) {
+        this.apiUrl = stripSlash(baseUrl) + API_PATH;
+        this.apiKey = apiKey;
+        this.waiter = waiter;
+        this.quota = quota;
+        this.maxUploadBytes = maxUploadBytes;
+    }
+
+    // Look up report for 'sha256', uploading file at 'absFilePath' only if
+    // VirusTotal doesn't know the hash, and return <engine, result> pairs
+    public ST<String, String> scan(String absFilePath, String sha256,
+                                   EngineSelection engines) {
+        return stream(absFilePath, sha256, 0, engines, scanResult -> { });
+    }
+
+    // Look up report for 'sha256' (or upload) and hand each engine scan to
+    // 'onResult' as the analysis fills in
+    public ST<String, String> stream(String absFilePath, String sha256,
+                                     int stopAfter, EngineSelection engines,
+                                     Consumer<ScanResult> onResult) {
+
+        // <engine, result> pairs handed out so far
+        ST<String, String> rawScanResults = new ST<String, String>();
+
+        // Existing report for the hash
+        if (!sha256.isEmpty()) {
+            Object report = get("/files/" + sha256, true,
+                                QuotaScheduler.LOOKUP);
+            if (report != null) {
+                Object results = Json.get(report, "data", "attributes",
+                                          "last_analysis_results");
+                handOut(results, rawScanResults, stopAfter, onResult);
+                return rawScanResults;
+            }
+        }
+
+        // Unknown file; upload it, unless it's over the size ceiling, and
+        // poll its analysis
+        FileUpload.checkSize(Paths.get(absFilePath), maxUploadBytes);
+        String analysisId = upload(Paths.get(absFilePath), sha256);
+        long intervalNanos = quota.getRefillMillis() * NANOS_PER_MILLI;
+        long[] polledAt = { System.nanoTime() - intervalNanos };
+        int detected = 0;
+        while ((stopAfter <= 0 || detected < stopAfter)
+                && !engines.isComplete(rawScanResults)) {
+
+            // Wait until new engine scans finish or all are complete,
+            // polling no faster than the per-minute quota refills so polls
+            // don't crowd out other files' lookups
+            Object analysis = waiter.awaitEvery("analysis " + analysisId,
+                                                quota.getRefillMillis(),
+                                                () -> {
+
+                // Not yet due; the last wait ended with a poll
+                if (System.nanoTime() - polledAt[0] < intervalNanos)
+                    return null;
+                polledAt[0] = System.nanoTime();
+                Object polled = get("/analyses/" + analysisId, false,
+                                    QuotaScheduler.POLL);
+                Object results = Json.get(polled, "data", "attributes",
+                                          "results");
+                boolean complete = COMPLETED.equals(
+                        Json.get(polled, "data", "attributes", "status"));
+                if (complete || hasNew(results, rawScanResults))
+                    return polled;
+                return null;
+            });
+
+            // Hand out each newly finished engine scan
+            Object results = Json.get(analysis, "data", "attributes",
+                                      "results");
+            detected += handOut(results, rawScanResults,
+                                stopAfter <= 0 ? 0 : stopAfter - detected,
+                                onResult);
+            if (COMPLETED.equals(Json.get(analysis, "data", "attributes",
+                                          "status")))
+                break;
+        }
+
+        // Return <engine, result> pairs seen so far
+        return rawScanResults;
+    }
+
+    // Nothing to release; the HTTP client is shared
+    public void close() {
+    }
+
+    // Put each engine scan of API 'results' ({engine: {category, result}})
+    // not yet in 'rawScanResults' into it and hand it to 'onResult'; stop
+    // after 'stopAfter' detections (if > 0) and return number of detections
+    private static int handOut(Object results,
+                               ST<String, String> rawScanResults,
+                               int stopAfter, Consumer<ScanResult> onResult) {
+        int detected = 0;
+        if (!(results instanceof Map))
+            return detected;
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) results).entrySet()) {
+            String engine = (String) entry.getKey();
+            String result = verdict(entry.getValue());
+            if (result == null || rawScanResults.contains(engine))
+                continue;
+
+            rawScanResults.put(engine, result);
+            ScanResult scanResult = new ScanResult(engine, result);
+            if (scanResult.isMalicious())
+                detected++;
+            onResult.accept(scanResult);
+
+            // Enough engines flagged the file
+            if (stopAfter > 0 && detected >= stopAfter)
+                break;
+        }
+        return detected;
+    }
+
+    // Return true if API 'results' hold a finished engine scan not yet in
+    // 'rawScanResults'
+    private static boolean hasNew(Object results,
+                                  ST<String, String> rawScanResults) {
+        if (!(results instanceof Map))
+            return false;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) results).entrySet())
+            if (verdict(entry.getValue()) != null
+                    && !rawScanResults.contains((String) entry.getKey()))
+                return true;
+        return false;
+    }
+
+    // Return the result the VirusTotal website shows for one engine scan of
+    // the API ({category, result}), or null if the engine hasn't finished
+    // or VirusTotal sent something else
+    private static String verdict(Object engineResult) {
+        Object category = Json.get(engineResult, "category");
+        Object result = Json.get(engineResult, "result");
+        if (!(category instanceof String))
+            return null;
+
+        switch ((String) category) {
+            case "undetected":
+            case "harmless":
+                return "Undetected";
+            case "timeout":
+                return "Timeout";
+            case "confirmed-timeout":
+                return "Confirmed timeout";
+            case "type-unsupported":
+                return "Unable to process file type";
+            case "failure":
+                return "";
+            case "malicious":
+            case "suspicious":
+                return result instanceof String ? (String) result
+                        : (String) category;
+            default:
+                return null;
+        }
+    }
+
+    // Upload file at 'file' with 'sha256' hash (or "" if unknown) and return
+    // the id of its analysis
+    private String upload(Path file, String sha256) {
+
+        // Files over DIRECT_UPLOAD_LIMIT go to a one-time upload URL
+        String uploadUrl = apiUrl + "/files";
+        try {
+            if (Files.size(file) > DIRECT_UPLOAD_LIMIT) {
+                Object url = Json.get(get("/files/upload_url", false,
+                                          QuotaScheduler.UPLOAD), "data");
+                if (!(url instanceof String))
+                    throw new ScanException("VirusTotal did not return an"
+                                                    + " upload URL for \""
+                                                    + file + "\"");
+                uploadUrl = (String) url;
+            }
+        }
+        catch (IOException e) {
+            throw new ScanException("Could not read \"" + file + "\"", e);
+        }
+
+        // multipart/form-data body with the file as its only part, streamed
+        // in bounded chunks
+        String boundary = "vt-" + UUID.randomUUID();
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename="
+                + Json.quote(file.getFileName().toString()) + "\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        HttpRequest.BodyPublisher body;
+        try {
+            body = new FileUpload(file, head, tail);
+        }
+        catch (IOException e) {
+            throw new ScanException("Could not read \"" + file + "\"", e);
+        }
+
+        URI uploadUri;
+        try {
+            uploadUri = URI.create(uploadUrl);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ScanException("VirusTotal returned a bad upload URL"
+                                            + " for \"" + file + "\"", e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(uploadUri)
+                .timeout(REQUEST_TIMEOUT)
+                .header(KEY_HEADER, apiKey)
+                .header("Content-Type",
+                        "multipart/form-data; boundary=" + boundary)
+                .POST(body)
+                .build();
+
+        // Return id of the analysis the upload started; the same file
+        // uploaded by two workers at once is only sent once
+        Object response = request(request, false, sha256.isEmpty() ? null
+                : "upload " + sha256, QuotaScheduler.UPLOAD);
+        Object analysisId = Json.get(response, "data", "id");
+        if (!(analysisId instanceof String))
+            throw new ScanException("VirusTotal did not return an analysis id"
+                                            + " for \"" + file + "\"");
+        return (String) analysisId;
+    }
+
+    // GET API 'path' with 'priority' and return the parsed JSON response, or
+    // null if 'notFoundIsNull' and VirusTotal answered 404
+    private Object get(String path, boolean notFoundIsNull, int priority) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl + path))
+                .timeout(REQUEST_TIMEOUT)
+                .header(KEY_HEADER, apiKey)
+                .GET()
+                .build();
+        return request(request, notFoundIsNull, "GET " + path, priority);
+    }
+
+    // Send 'request' with 'priority' once quota allows, merged with the
+    // request for the same 'key' (null for none) already in flight; retry
+    // when VirusTotal says the quota is used up
+    private Object request(HttpRequest request, boolean notFoundIsNull,
+                           String key, int priority) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return quota.submit(request.method() + " "
+                                            + request.uri().getPath(),
+                                    key, priority, waiter,
+                                    () -> send(request, notFoundIsNull));
+            }
+
+            // Wait for this minute's quota to refill and try again
+            catch (QuotaExceededException e) {
+                quota.exhausted();
+                if (attempt >= MAX_QUOTA_RETRIES)
+                    throw e;
+            }
+        }
+    }
+
+    // Send 'request' and return the parsed JSON response, or null if
+    // 'notFoundIsNull' and VirusTotal answered 404; throw ScanException on
+    // any other failure
+    private Object send(HttpRequest request, boolean notFoundIsNull) {
+        HttpResponse<String> response;
+        long started = System.nanoTime();
+        try {
+            response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString(
+                    StandardCharsets.UTF_8));
+            Metrics.record(Metrics.API_REQUEST, started);
+        }
+        catch (IOException e) {
+            throw new ScanException("Could not reach VirusTotal at "
+                                            + request.uri(), e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScanTimeoutException(request.uri().toString(), true);
+        }
+
+        // Unknown hash
+        if (response.statusCode() == 404 && notFoundIsNull)
+            return null;
+
+        // Quota used up despite the scheduler (e.g. shared API key)
+        if (response.statusCode() == TOO_MANY_REQUESTS)
+            throw new QuotaExceededException(request.uri().getPath());
+
+        // Any other error, e.g. 401 bad API key
+        if (response.statusCode() / 100 != 2)
+            throw new ScanException("VirusTotal answered HTTP "
+                                            + response.statusCode() + " to "
+                                            + request.method() + " "
+                                            + request.uri().getPath());
+
+        try {
+            return Json.parse(response.body());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ScanException("VirusTotal sent a malformed response to "
+                                            + request.uri().getPath(), e);
+        }
+    }
+
+    // Return 'url' without trailing slash
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    // VirusTotal answered HTTP 429: the API key's quota is used up
+    private static class QuotaExceededException extends ScanException {
+        private static final long serialVersionUID = 1L;
+
+        private QuotaExceededException(String path) {
+            super("VirusTotal answered HTTP " + TOO_MANY_REQUESTS + " to "
+                          + path + ": API quota exceeded");
+        }
+    }
+}
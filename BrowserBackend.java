@@ -0,0 +1,67 @@
+/*
+ * ScanBackend that drives the VirusTotal website with one headless Chrome
+ * WebDriver, using the page scripts in VT.java. The browser is owned by a
+ * DriverSupervisor, which recycles it and cleans up after it. The memory
+ * its processes use after each scan goes to Metrics.
+ */
+
+// Import libraries
+// selenium - browser automation
+// function - hand streamed results to caller
+
+import org.openqa.selenium.WebDriverException;
+
+import java.util.function.Consumer;
+
+
+public class BrowserBackend implements ScanBackend {
+
+    // Instance variables
+    private final DriverSupervisor supervisor;  // Owns the browser
+
+    // Specified constructor scans with the browsers of 'supervisor'
+    public BrowserBackend(DriverSupervisor supervisor) {
+        this.supervisor = supervisor;
+    }
+
+    // Scan with VT.scanFile
+    public ST<String, String> scan(String absFilePath, String sha256,
+                                   EngineSelection engines) {
+        try {
+            ST<String, String> rawScanResults = VT.scanFile(
+                    supervisor.driver(), absFilePath, sha256, engines);
+            Metrics.recordMemory(supervisor.memory());
+            return rawScanResults;
+        }
+
+        // Browser crashed or hung up; the supervisor replaces it before
+        // the next scan
+        catch (WebDriverException e) {
+            throw new ScanException("The browser failed", e);
+        }
+    }
+
+    // Stream with VT.streamFile
+    public ST<String, String> stream(String absFilePath, String sha256,
+                                     int stopAfter, EngineSelection engines,
+                                     Consumer<ScanResult> onResult) {
+        try {
+            ST<String, String> rawScanResults = VT.streamFile(
+                    supervisor.driver(), absFilePath, sha256, stopAfter,
+                    engines, onResult);
+            Metrics.recordMemory(supervisor.memory());
+            return rawScanResults;
+        }
+
+        // Browser crashed or hung up; the supervisor replaces it before
+        // the next scan
+        catch (WebDriverException e) {
+            throw new ScanException("The browser failed", e);
+        }
+    }
+
+    // End WebDriver and its processes
+    public void close() {
+        supervisor.close();
+    }
+}
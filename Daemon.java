@@ -0,0 +1,343 @@
+/*
+ * Long-lived scan server for `vt --daemon`: keeps the JVM and a pool of
+ * warmed-up backends (headless Chrome WebDrivers or API clients) running and
+ * listens on a Unix domain socket, so a `vt` invocation only has to hash its
+ * files and send them over instead of starting Chrome every time.
+ *
+ * Protocol: the client sends one JSON object per line,
+ *     {"file": ABSOLUTE_PATH, "sha256": HASH}
+ * and closes its side of the socket. The server answers with one JSON object
+ * per line as each file finishes (in completion order),
+ *     {"file": ..., "sha256": ..., "results": [{"engine": ..., "result": ...}]}
+ * or {"file": ..., "sha256": ..., "error": MESSAGE}, then closes the socket.
+ * A client checking that the daemon is up sends {"ping": true} instead and
+ * gets {"pong": true} back.
+ * Results carry the raw result text so the client can filter them exactly
+ * like a local scan; the daemon stores them in the shared result cache.
+ */
+
+// Import libraries
+// io, nio - Unix domain socket
+// concurrent - backend pool, scanning threads
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import static org.fusesource.jansi.Ansi.Color.BLACK;
+import static org.fusesource.jansi.Ansi.Color.CYAN;
+
+
+public class Daemon {
+
+    // Constants
+    private static final String PING = "{\"ping\":true}\n";
+    private static final String PONG = "{\"pong\":true}\n";
+
+    // Replies from the daemon, one call per file
+    public interface Reply {
+
+        // File at 'absFilePath' with 'sha256' hash was scanned into
+        // 'rawScanResults' <engine, result> pairs, or failed with 'error'
+        // (rawScanResults is null then)
+        void accept(String absFilePath, String sha256,
+                    ST<String, String> rawScanResults, String error);
+    }
+
+    // Don't instantiate
+    private Daemon() { }
+
+    // Return ~/.vt/vt.sock
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("user.home"), ".vt", "vt.sock");
+    }
+
+    // Serve scan requests on 'socket' forever with 'workers' warm backends
+    // from 'backends', storing new scans in 'cache'
+    public static void serve(Path socket, int workers,
+                             Supplier<ScanBackend> backends,
+                             ResultCache cache) throws IOException {
+
+        // Start every backend up front, at the same time, so the first
+        // request doesn't pay for browser startup
+        BlockingQueue<ScanBackend> pool
+                = new LinkedBlockingQueue<ScanBackend>();
+        ExecutorService scanners = Executors.newFixedThreadPool(workers);
+        List<Future<ScanBackend>> starting = new ArrayList<Future<ScanBackend>>();
+        for (int i = 0; i < workers; i++)
+            starting.add(scanners.submit(backends::get));
+        for (Future<ScanBackend> backend : starting) {
+            try {
+                pool.add(backend.get());
+            }
+            catch (Exception e) {
+                throw new IOException("Could not start backend", e);
+            }
+        }
+
+        // Replace a socket file left behind by a daemon that died
+        Files.createDirectories(socket.toAbsolutePath().getParent());
+        Files.deleteIfExists(socket);
+        ServerSocketChannel server
+                = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+
+        // Close backends and remove socket file when the daemon is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (ScanBackend backend : pool)
+                backend.close();
+            try {
+                server.close();
+                Files.deleteIfExists(socket);
+            }
+            catch (IOException e) {
+                // Exiting anyway
+            }
+        }));
+
+        String message = "\nDaemon ready on \"" + socket + "\" with "
+                + workers + " warm backend(s).\n";
+        VT.colorPrint(false, BLACK, CYAN, message);
+
+        // One thread per client; scans run on the 'scanners' pool
+        while (true) {
+            SocketChannel client = server.accept();
+            Thread handler = new Thread(() -> handle(client, pool, scanners,
+                                                     cache),
+                                        "vt-daemon-client");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    // Read scan requests from 'client', scan them on 'scanners' with
+    // backends borrowed from 'pool' and write each reply as soon as its
+    // file finishes
+    private static void handle(SocketChannel client,
+                               BlockingQueue<ScanBackend> pool,
+                               ExecutorService scanners, ResultCache cache) {
+        try (SocketChannel channel = client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+
+            // Queue every requested file; a request that can't be read is
+            // answered with an error right away
+            List<Future<?>> scans = new ArrayList<Future<?>>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                Object request;
+                try {
+                    request = Json.parse(line);
+                }
+                catch (IllegalArgumentException e) {
+                    request = null;
+                }
+                if (Boolean.TRUE.equals(Json.get(request, "ping"))) {
+                    synchronized (out) {
+                        out.write(PONG);
+                        out.flush();
+                    }
+                    continue;
+                }
+                Object file = Json.get(request, "file");
+                Object hash = Json.get(request, "sha256");
+                if (!(file instanceof String) || !(hash instanceof String)) {
+                    reply(out, file instanceof String ? (String) file : "",
+                          hash instanceof String ? (String) hash : "", null,
+                          "Bad request");
+                    continue;
+                }
+                String absFilePath = (String) file;
+                String sha256 = (String) hash;
+                scans.add(scanners.submit(() -> {
+                    scan(absFilePath, sha256, pool, cache, out);
+                    return null;
+                }));
+            }
+
+            // Wait for the last reply before closing the socket
+            for (Future<?> scan : scans)
+                scan.get();
+        }
+        catch (Exception e) {
+            // Client went away; nothing to answer
+        }
+    }
+
+    // Scan file at 'absFilePath' with 'sha256' hash with a backend borrowed
+    // from 'pool' and write reply to 'out'
+    private static void scan(String absFilePath, String sha256,
+                             BlockingQueue<ScanBackend> pool,
+                             ResultCache cache, Writer out) throws Exception {
+
+        // The client already checked the cache with its own --max-age;
+        // every engine is scanned, since the results are cached for all
+        // clients and each client narrows them to its own --engine
+        ST<String, String> rawScanResults = null;
+        String error = null;
+        ScanBackend backend = pool.take();
+        long started = System.nanoTime();
+        try {
+            rawScanResults = backend.scan(absFilePath, sha256,
+                                          EngineSelection.ALL);
+            Metrics.record(Metrics.SCAN, started);
+            cache.put(sha256, rawScanResults);
+        }
+        catch (ScanException e) {
+            error = e.getMessage();
+        }
+
+        // Anything else the backend throws still gets the file an answer
+        catch (Throwable e) {
+            error = e.toString();
+        }
+        finally {
+            pool.put(backend);
+        }
+        reply(out, absFilePath, sha256, rawScanResults, error);
+    }
+
+    // Write reply for file at 'absFilePath' with 'sha256' hash to 'out':
+    // its 'rawScanResults' <engine, result> pairs, or 'error' if not null
+    private static void reply(Writer out, String absFilePath, String sha256,
+                              ST<String, String> rawScanResults,
+                              String error) throws IOException {
+        StringBuilder reply = new StringBuilder();
+        reply.append("{\"file\":").append(Json.quote(absFilePath));
+        reply.append(",\"sha256\":").append(Json.quote(sha256));
+        if (error != null)
+            reply.append(",\"error\":").append(Json.quote(error));
+        else {
+            reply.append(",\"results\":[");
+            boolean first = true;
+            for (String engine : rawScanResults.keys()) {
+                if (!first)
+                    reply.append(',');
+                reply.append("{\"engine\":").append(Json.quote(engine));
+                reply.append(",\"result\":")
+                     .append(Json.quote(rawScanResults.get(engine)));
+                reply.append('}');
+                first = false;
+            }
+            reply.append(']');
+        }
+        reply.append("}\n");
+        synchronized (out) {
+            out.write(reply.toString());
+            out.flush();
+        }
+    }
+
+    // Return true if a daemon answers a ping on 'socket'
+    public static boolean isRunning(Path socket) {
+        if (!Files.exists(socket))
+            return false;
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket))) {
+            Writer out = new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            out.write(PING);
+            out.flush();
+            channel.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            return PONG.trim().equals(in.readLine());
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Send files at 'absFilePaths' with 'hashes' to the daemon on 'socket'
+    // and hand each reply to 'reply' as it arrives; a file the daemon never
+    // answered is handed to 'reply' with an error once the daemon is done
+    public static void scan(Path socket, List<String> absFilePaths,
+                            List<String> hashes, Reply reply)
+            throws IOException {
+
+        // Files not answered yet, counted per path in case one is sent
+        // twice
+        Map<String, Integer> unanswered = new HashMap<String, Integer>();
+        for (String absFilePath : absFilePaths)
+            unanswered.merge(absFilePath, 1, Integer::sum);
+
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket))) {
+
+            // Send every request, then close our side so the daemon knows
+            // there are no more
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            for (int i = 0; i < absFilePaths.size(); i++)
+                out.write("{\"file\":" + Json.quote(absFilePaths.get(i))
+                                  + ",\"sha256\":" + Json.quote(hashes.get(i))
+                                  + "}\n");
+            out.flush();
+            channel.shutdownOutput();
+
+            // Read replies until the daemon closes the socket
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                Object answer = Json.parse(line);
+                String absFilePath = (String) Json.get(answer, "file");
+                String sha256 = (String) Json.get(answer, "sha256");
+                Object error = Json.get(answer, "error");
+                unanswered.computeIfPresent(absFilePath,
+                                            (file, count) -> count > 1
+                                                    ? count - 1 : null);
+                if (error != null) {
+                    reply.accept(absFilePath, sha256, null, (String) error);
+                    continue;
+                }
+
+                // Rebuild <engine, result> pairs
+                ST<String, String> rawScanResults = new ST<String, String>();
+                for (Object result : (List<?>) Json.get(answer, "results"))
+                    rawScanResults.put((String) ((Map<?, ?>) result)
+                                               .get("engine"),
+                                       (String) ((Map<?, ?>) result)
+                                               .get("result"));
+                reply.accept(absFilePath, sha256, rawScanResults, null);
+            }
+        }
+
+        // Files the daemon dropped
+        for (int i = 0; i < absFilePaths.size(); i++) {
+            String absFilePath = absFilePaths.get(i);
+            if (!unanswered.containsKey(absFilePath))
+                continue;
+            unanswered.computeIfPresent(absFilePath, (file, count) -> count > 1
+                    ? count - 1 : null);
+            reply.accept(absFilePath, hashes.get(i), null,
+                         "The daemon sent no answer");
+        }
+    }
+}
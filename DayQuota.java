@@ -0,0 +1,146 @@
+/*
+ * Per-day VirusTotal API quota shared by every vt process using the same
+ * API key. VirusTotal counts the day's requests from 00:00 UTC, so the
+ * number of requests sent so far on the current UTC day is kept in a small
+ * file under ~/.vt/quota, one per key (named by the key's SHA-256 hash, so
+ * the key itself isn't written to disk), and read and updated under an
+ * exclusive file lock for every request. Runs one after another, runs side
+ * by side and a --daemon then spend the same day's quota instead of each
+ * starting from a full one. If the file can't be used, requests are
+ * counted in this process only.
+ */
+
+// Import libraries
+// io, nio - usage file and its lock
+// security - file name from the API key
+// time - UTC day
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+
+public class DayQuota {
+
+    // Constants
+    private static final int MAX_FILE_BYTES = 64;   // "<date> <count>\n"
+
+    // Instance variables
+    private final int capacity;     // Requests allowed per UTC day
+    private final Path file;        // Usage shared with other runs, or null
+    private LocalDate day;          // UTC day 'used' counts
+    private int used;               // Requests sent on 'day'
+
+    // Specified constructor allows 'capacity' requests per UTC day, counted
+    // in usage file 'file' (null to count in this process only)
+    public DayQuota(int capacity, Path file) {
+        this.capacity = capacity;
+        this.file = file;
+        day = today();
+        used = 0;
+    }
+
+    // Return ~/.vt/quota/<SHA-256 of 'apiKey'>
+    public static Path defaultFile(String apiKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = FileHash.toHex(digest.digest(
+                apiKey.getBytes(StandardCharsets.UTF_8)));
+        return Paths.get(System.getProperty("user.home"), ".vt", "quota",
+                         name);
+    }
+
+    // Take one request from today's quota and return true, or return false
+    // if today's quota is spent
+    public synchronized boolean tryTake() {
+        if (file != null) {
+            try {
+                return tryTakeShared();
+            }
+
+            // Locked by another thread of this JVM, or not writable
+            catch (IOException | OverlappingFileLockException e) {
+                // Counted in this process only
+            }
+        }
+        roll(today());
+        if (used >= capacity)
+            return false;
+        used++;
+        return true;
+    }
+
+    // Take one request from today's quota in the usage file, under its lock
+    private boolean tryTakeShared() throws IOException {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(
+                     file, StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            // Held until the channel closes
+            channel.lock();
+            read(channel);
+            roll(today());
+            if (used >= capacity)
+                return false;
+            used++;
+            byte[] line = (day + " " + used + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(line), 0);
+            return true;
+        }
+    }
+
+    // Read day and count from 'channel'; an empty or unreadable file
+    // leaves what this process counted
+    private void read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_FILE_BYTES);
+        channel.read(buffer, 0);
+        String[] fields = new String(buffer.array(), 0, buffer.position(),
+                                     StandardCharsets.US_ASCII)
+                .trim().split(" ");
+        if (fields.length != 2)
+            return;
+        try {
+            LocalDate fileDay = LocalDate.parse(fields[0]);
+            int fileUsed = Integer.parseInt(fields[1]);
+            if (fileDay.isAfter(day) || fileDay.equals(day)
+                    && fileUsed > used) {
+                day = fileDay;
+                used = fileUsed;
+            }
+        }
+        catch (RuntimeException e) {
+            // Keep this process's count
+        }
+    }
+
+    // Start counting from zero if 'today' is a new day
+    private void roll(LocalDate today) {
+        if (!today.equals(day)) {
+            day = today;
+            used = 0;
+        }
+    }
+
+    // Return current UTC day
+    private static LocalDate today() {
+        return LocalDate.now(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Lists every file under a directory tree with Files.walkFileTree and hashes
+ * many files at once on a ForkJoin pool, for --dir. Each file is hashed with
+ * FileHash (memory-mapped reads), so the hashing threads spend their time in
+ * the digest rather than copying file contents around.
+ */
+
+// Import libraries
+// io, nio - walk directory tree
+// concurrent - parallel hashing
+// function - choose which files to list
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+
+public class DirectoryWalker {
+
+    // Constants
+    private static final int FILES_PER_TASK = 1;    // Hashed without forking
+
+    // Don't instantiate
+    private DirectoryWalker() { }
+
+    // Return <absolute file path, attributes> of every regular file under
+    // 'dir' that 'accept' accepts, sorted by path; symbolic links aren't
+    // followed and unreadable directories are skipped
+    public static ST<String, BasicFileAttributes> files(
+            Path dir, Predicate<Path> accept) throws IOException {
+        ST<String, BasicFileAttributes> files
+                = new ST<String, BasicFileAttributes>();
+
+        Files.walkFileTree(dir.toAbsolutePath(),
+                           new SimpleFileVisitor<Path>() {
+
+            // List file
+            public FileVisitResult visitFile(Path file,
+                                             BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && accept.test(file))
+                    files.put(file.toString(), attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            // Skip what can't be read instead of ending the walk
+            public FileVisitResult visitFileFailed(Path file,
+                                                   IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return files;
+    }
+
+    // Return SHA-256 hashes of files at 'absFilePaths' (same order; "" for
+    // a file that couldn't be read), hashing on all processors at once
+    public static String[] sha256(List<String> absFilePaths) {
+        String[] hashes = new String[absFilePaths.size()];
+        ForkJoinPool pool = new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new HashTask(absFilePaths, hashes, 0, hashes.length));
+        }
+        finally {
+            pool.shutdown();
+        }
+        return hashes;
+    }
+
+    // Hashes files 'lo' (inclusive) to 'hi' (exclusive) of 'absFilePaths'
+    // into 'hashes', splitting the range in halves until it is small
+    private static class HashTask extends RecursiveAction {
+
+        // Constants
+        private static final long serialVersionUID = 1L;
+
+        // Instance variables
+        private final List<String> absFilePaths;    // Files to hash
+        private final String[] hashes;              // Hash of each file
+        private final int lo;                       // First file of range
+        private final int hi;                       // One past last file
+
+        // Specified constructor hashes range 'lo' to 'hi'
+        private HashTask(List<String> absFilePaths, String[] hashes, int lo,
+                         int hi) {
+            this.absFilePaths = absFilePaths;
+            this.hashes = hashes;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        // Hash small range directly, otherwise fork halves
+        protected void compute() {
+            if (hi - lo <= FILES_PER_TASK) {
+                for (int i = lo; i < hi; i++) {
+                    try {
+                        hashes[i] = FileHash.sha256(
+                                Paths.get(absFilePaths.get(i)));
+                    }
+                    catch (IOException e) {
+                        hashes[i] = "";
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new HashTask(absFilePaths, hashes, lo, mid),
+                      new HashTask(absFilePaths, hashes, mid, hi));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Owns the headless Chrome WebDriver of one BrowserBackend for as long as
+ * the backend lives, so a long-running --daemon, --watch or batch doesn't
+ * grow without bound. The browser started with VT.startDriver is recycled
+ * (quit and started again) after a number of scans or once its processes
+ * use more memory than allowed, and health-checked before every reuse. On
+ * quit, and from a shutdown hook however the program ends, the whole
+ * chromedriver process tree (chromedriver, Chrome and its renderers) is
+ * killed so no orphaned browser is left behind.
+ */
+
+// Import libraries
+// selenium - browser and the chromedriver it talks to
+// io, nio - process memory from /proc
+// concurrent - browsers alive in this JVM
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class DriverSupervisor {
+
+    // Constants
+    public static final int DEFAULT_RECYCLE_AFTER = 100;    // Scans
+    public static final int DEFAULT_MAX_MB = 2048;          // All processes
+    private static final long BYTES_PER_KB = 1024;
+    private static final long BYTES_PER_MB = 1024 * BYTES_PER_KB;
+    private static final String PORT_ARG = "--port=";
+    private static final String PSS_FIELD = "Pss:";
+
+    // Browsers alive in this JVM, killed by the shutdown hook
+    private static final Set<DriverSupervisor> LIVE
+            = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (DriverSupervisor supervisor : LIVE)
+                supervisor.kill();
+        }, "vt-driver-reaper"));
+    }
+
+    // Instance variables
+    private final int recycleAfter;             // Scans per browser, or 0
+    private final long maxBytes;                // Memory per browser, or 0
+    private final LeanProfile lean;             // --lean, or null
+    private WebDriver driver;                   // Current browser, or null
+    private volatile ProcessHandle chromedriver; // Its chromedriver, or null
+    private int scans;                          // Scans with this browser
+
+    // Specified constructor starts a browser, with the lean profile if
+    // 'lean', that is recycled after 'recycleAfter' scans or once its
+    // processes use over 'maxBytes' (0 for no limit); browsers started
+    // again keep the lean profile's disk cache
+    public DriverSupervisor(int recycleAfter, long maxBytes, boolean lean) {
+        this.recycleAfter = recycleAfter;
+        this.maxBytes = maxBytes;
+        this.lean = lean ? LeanProfile.open() : null;
+        start();
+    }
+
+    // Return 'mb' megabytes in bytes
+    public static long megabytes(int mb) {
+        return mb * BYTES_PER_MB;
+    }
+
+    // Return a healthy browser for the next scan: the current one unless it
+    // is due for recycling or doesn't answer, else a new one
+    public synchronized WebDriver driver() {
+        if (driver == null)
+            start();
+        else if (recycleAfter > 0 && scans >= recycleAfter
+                || maxBytes > 0 && memory() > maxBytes || !isHealthy()) {
+            quit();
+            start();
+        }
+        scans++;
+        return driver;
+    }
+
+    // Quit browser, kill whatever is left of its processes and give up
+    // its disk cache
+    public synchronized void close() {
+        quit();
+        if (lean != null)
+            lean.close();
+    }
+
+    // Return memory used by chromedriver and every process under it, in
+    // bytes; each process counts its proportional share of pages shared
+    // with the others, so Chrome's shared memory isn't counted once per
+    // renderer; 0 if it can't be read (e.g. no /proc)
+    public synchronized long memory() {
+        if (chromedriver == null)
+            return 0;
+        long bytes = 0;
+        for (ProcessHandle process : tree(chromedriver))
+            bytes += memory(process.pid());
+        return bytes;
+    }
+
+    // Start browser and find the chromedriver it talks to
+    private void start() {
+        driver = VT.startDriver(lean);
+        chromedriver = findChromedriver(driver);
+        scans = 0;
+        LIVE.add(this);
+    }
+
+    // Quit browser; a browser that doesn't quit cleanly is killed
+    private void quit() {
+        if (driver == null)
+            return;
+        try {
+            driver.quit();
+        }
+        catch (WebDriverException e) {
+            // Killed below
+        }
+        kill();
+        driver = null;
+        chromedriver = null;
+        LIVE.remove(this);
+    }
+
+    // Kill chromedriver and every process under it; collected first, since
+    // once chromedriver is gone its children no longer belong to its tree
+    private void kill() {
+        ProcessHandle root = chromedriver;
+        if (root == null)
+            return;
+        for (ProcessHandle process : tree(root))
+            process.destroyForcibly();
+    }
+
+    // Return whether the browser still answers
+    private boolean isHealthy() {
+        if (chromedriver != null && !chromedriver.isAlive())
+            return false;
+        try {
+            driver.getWindowHandle();
+            return true;
+        }
+        catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    // Return 'root' and every process under it, children first
+    private static List<ProcessHandle> tree(ProcessHandle root) {
+        List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+        root.descendants().forEach(tree::add);
+        tree.add(root);
+        return tree;
+    }
+
+    // Return chromedriver child of this JVM that 'driver' talks to, found by
+    // the port on its command line, or null if it can't be told apart
+    private static ProcessHandle findChromedriver(WebDriver driver) {
+        if (!(driver instanceof RemoteWebDriver))
+            return null;
+        CommandExecutor executor
+                = ((RemoteWebDriver) driver).getCommandExecutor();
+        if (!(executor instanceof HttpCommandExecutor))
+            return null;
+        String port = PORT_ARG + ((HttpCommandExecutor) executor)
+                .getAddressOfRemoteServer().getPort();
+        Optional<ProcessHandle> found = ProcessHandle.current().children()
+                .filter(child -> child.info().arguments()
+                        .map(args -> List.of(args).contains(port))
+                        .orElse(false))
+                .findFirst();
+        return found.orElse(null);
+    }
+
+    // Return proportional set size of process 'pid' in bytes, or 0 if it
+    // can't be read
+    private static long memory(long pid) {
+        try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get("/proc", Long.toString(pid), "smaps_rollup"))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.startsWith(PSS_FIELD))
+                    return Long.parseLong(line.substring(PSS_FIELD.length())
+                                              .trim().split("\\s+")[0])
+                            * BYTES_PER_KB;
+        }
+        catch (IOException | NumberFormatException e) {
+            // Gone already, or not Linux
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Watches a drop folder (and the folders created inside it) with a
+ * WatchService for --watch and hands out each new or modified file once it
+ * has settled: no event for the settle period and the same size and
+ * last-modified time as at its last event, so files still being copied in
+ * aren't scanned half-written.
+ */
+
+// Import libraries
+// io, nio - watch service, file attributes
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+public class DropWatcher implements Closeable {
+
+    // Instance variables
+    private final Path dir;                 // Watched drop folder
+    private final long settleMillis;        // Quiet time before a file is
+                                            // handed out
+    private final WatchService service;     // Events of 'dir' and subfolders
+    private final Map<WatchKey, Path> keys;         // Folder of each key
+    private final Map<Path, Pending> pending;       // Files not settled yet
+    private long lastOverflow;              // Time events were last lost
+
+    // Specified constructor watches 'dir' and every folder under it, handing
+    // out files 'settleMillis' after their last change
+    public DropWatcher(Path dir, long settleMillis) throws IOException {
+        this.dir = dir.toAbsolutePath();
+        this.settleMillis = settleMillis;
+        service = FileSystems.getDefault().newWatchService();
+        keys = new HashMap<WatchKey, Path>();
+        pending = new HashMap<Path, Pending>();
+        lastOverflow = System.currentTimeMillis();
+        registerTree(this.dir, false);
+    }
+
+    // Wait until at least one file has settled and return the absolute
+    // paths of all settled files
+    public List<String> take() throws IOException, InterruptedException {
+        while (true) {
+
+            // Hand out settled files
+            List<String> settled = settled();
+            if (!settled.isEmpty())
+                return settled;
+
+            // Wait for the next event, or until the next pending file could
+            // settle
+            WatchKey key;
+            try {
+                if (pending.isEmpty())
+                    key = service.take();
+                else
+                    key = service.poll(nextSettle(), TimeUnit.MILLISECONDS);
+            }
+            catch (ClosedWatchServiceException e) {
+                throw new InterruptedException("Watch closed");
+            }
+            if (key != null)
+                handle(key);
+        }
+    }
+
+    // Stop watching
+    public void close() throws IOException {
+        service.close();
+    }
+
+    // Note every file created or modified in the folder of 'key', and watch
+    // new folders
+    private void handle(WatchKey key) throws IOException {
+        Path folder = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+
+            // Events were lost; pick up everything changed since the last
+            // time that happened
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                long since = lastOverflow;
+                lastOverflow = System.currentTimeMillis();
+                registerTree(dir, true, since);
+                continue;
+            }
+
+            Path file = folder.resolve((Path) event.context());
+            if (Files.isDirectory(file)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                    registerTree(file, true);
+            }
+            else
+                touch(file);
+        }
+
+        // Folder was deleted
+        if (!key.reset())
+            keys.remove(key);
+    }
+
+    // Return absolute paths of pending files that settled, forgetting them;
+    // files that vanished are dropped and files that changed wait again
+    private List<String> settled() {
+        List<String> settled = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Pending>> entries
+                = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Pending> entry = entries.next();
+            Pending file = entry.getValue();
+            if (now - file.lastEvent < settleMillis)
+                continue;
+
+            // Size or last-modified time moved without an event (e.g. a
+            // slow copy on a network share)
+            Pending current = Pending.of(entry.getKey());
+            if (current == null) {
+                entries.remove();
+                continue;
+            }
+            if (current.size != file.size || current.modified != file.modified) {
+                entry.setValue(current);
+                continue;
+            }
+
+            settled.add(entry.getKey().toString());
+            entries.remove();
+        }
+        return settled;
+    }
+
+    // Return milliseconds until the earliest pending file could settle
+    private long nextSettle() {
+        long earliest = Long.MAX_VALUE;
+        for (Pending file : pending.values())
+            earliest = Math.min(earliest, file.lastEvent);
+        return Math.max(1, earliest + settleMillis
+                - System.currentTimeMillis());
+    }
+
+    // Note that 'file' was just created or modified
+    private void touch(Path file) {
+        Pending current = Pending.of(file);
+        if (current == null)
+            pending.remove(file);
+        else
+            pending.put(file, current);
+    }
+
+    // Watch 'root' and every folder under it; if 'notePresent', note files
+    // already in them (created before the folder was watched)
+    private void registerTree(Path root, boolean notePresent)
+            throws IOException {
+        registerTree(root, notePresent, Long.MIN_VALUE);
+    }
+
+    // Watch 'root' and every folder under it; if 'notePresent', note files
+    // in them last modified after 'since' (milliseconds)
+    private void registerTree(Path root, boolean notePresent, long since)
+            throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            // Watch folder
+            public FileVisitResult preVisitDirectory(
+                    Path folder, BasicFileAttributes attrs) throws IOException {
+                if (!keys.containsValue(folder))
+                    keys.put(folder.register(
+                            service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), folder);
+                return FileVisitResult.CONTINUE;
+            }
+
+            // Note file
+            public FileVisitResult visitFile(Path file,
+                                             BasicFileAttributes attrs) {
+                if (notePresent && attrs.isRegularFile()
+                        && attrs.lastModifiedTime().toMillis() > since)
+                    touch(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            // Skip what can't be read instead of ending the walk
+            public FileVisitResult visitFileFailed(Path file,
+                                                   IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Size and last-modified time of a file at its last event
+    private static class Pending {
+        private final long size;
+        private final long modified;
+        private final long lastEvent;
+
+        private Pending(long size, long modified, long lastEvent) {
+            this.size = size;
+            this.modified = modified;
+            this.lastEvent = lastEvent;
+        }
+
+        // Return current state of regular file at 'file', or null if it is
+        // gone or not a regular file
+        private static Pending of(Path file) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file, BasicFileAttributes.class);
+                if (!attrs.isRegularFile())
+                    return null;
+                return new Pending(attrs.size(),
+                                   attrs.lastModifiedTime().toMillis(),
+                                   System.currentTimeMillis());
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Engines chosen with --engine, -e as a comma separated list of names (e.g.
+ * "Kaspersky,ESET,Microsoft"), held in a hash set of lowercase names so
+ * checking an engine ignores case and costs the same however many were
+ * chosen. A scan with a selection stops as soon as every selected engine
+ * has a result instead of waiting for all of VirusTotal's engines.
+ */
+
+// Import libraries
+// util - set of selected engines
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+
+public class EngineSelection {
+
+    // Constants
+    private static final String SEPARATOR = ",";
+
+    // Every engine; nothing was entered with --engine, -e
+    public static final EngineSelection ALL = new EngineSelection("");
+
+    // Instance variables
+    private final String list;          // Names as entered, for messages
+    private final Set<String> engines;  // Lowercase names
+
+    // Specified constructor selects the engines in comma separated 'list'
+    private EngineSelection(String list) {
+        engines = new HashSet<String>();
+        StringBuilder names = new StringBuilder();
+        for (String name : list.split(SEPARATOR)) {
+            name = name.trim();
+            if (name.isEmpty() || !engines.add(key(name)))
+                continue;
+            if (names.length() > 0)
+                names.append(SEPARATOR);
+            names.append(name);
+        }
+        this.list = names.toString();
+    }
+
+    // Return selection of the engines in comma separated 'list', or ALL if
+    // it names none
+    public static EngineSelection parse(String list) {
+        EngineSelection selection = new EngineSelection(list);
+        return selection.engines.isEmpty() ? ALL : selection;
+    }
+
+    // Return whether every engine is selected
+    public boolean isAll() {
+        return engines.isEmpty();
+    }
+
+    // Return number of engines selected, or 0 for every engine
+    public int size() {
+        return engines.size();
+    }
+
+    // Return whether results of 'engine' should be shown
+    public boolean contains(String engine) {
+        return engines.isEmpty() || engines.contains(key(engine));
+    }
+
+    // Return whether every selected engine has a result in
+    // 'rawScanResults'; never true when every engine is selected, since
+    // only the report itself knows when all of them are done
+    public boolean isComplete(ST<String, String> rawScanResults) {
+        if (engines.isEmpty() || rawScanResults.size() < engines.size())
+            return false;
+        int found = 0;
+        for (String engine : rawScanResults.keys())
+            if (engines.contains(key(engine)))
+                found++;
+        return found == engines.size();
+    }
+
+    // Return selected engines as entered, comma separated
+    public String toString() {
+        return list;
+    }
+
+    // Return set key of engine 'name'
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
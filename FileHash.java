@@ -0,0 +1,69 @@
+/*
+ * Computes the SHA-256 hash of a file the same way VirusTotal identifies
+ * samples. The file is streamed through fixed-size memory-mapped windows so
+ * multi-hundred-MB files are hashed without copying them onto the heap.
+ */
+
+// Import libraries
+// nio - memory-mapped file reads
+// security - SHA-256 digest
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+public class FileHash {
+
+    // Constants
+    private static final String ALGORITHM = "SHA-256";
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;  // 64 MiB
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Don't instantiate
+    private FileHash() { }
+
+    // Return lowercase hex SHA-256 hash of file at 'file'
+    public static String sha256(Path file) throws IOException {
+
+        // SHA-256 digest is always available in the JDK
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Feed file to digest one memory-mapped window at a time
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                long length = Math.min(MAP_WINDOW, size - position);
+                MappedByteBuffer window = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, length);
+                digest.update(window);
+            }
+        }
+        Metrics.record(Metrics.HASH, started);
+
+        // Return hash as lowercase hex
+        return toHex(digest.digest());
+    }
+
+    // Return 'bytes' as lowercase hex String
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
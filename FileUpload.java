@@ -0,0 +1,211 @@
+/*
+ * multipart/form-data request body that streams a file to the VirusTotal
+ * API in fixed-size chunks read with FileChannel positional reads, only as
+ * fast as the HTTP client asks for them, so uploading a multi-GB image
+ * holds a few chunks in memory at a time instead of the whole file. Also
+ * checks files against the upload size ceiling (--max-upload) for both
+ * backends.
+ */
+
+// Import libraries
+// net.http - request body publisher
+// io, nio - chunked file reads
+// concurrent - demand from the HTTP client
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class FileUpload implements HttpRequest.BodyPublisher {
+
+    // Constants
+    public static final int DEFAULT_MAX_UPLOAD_MB = 650;   // VirusTotal's
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final long BYTES_PER_MB = 1024L * 1024;
+
+    // Instance variables
+    private final Path file;        // File sent as the body's only part
+    private final byte[] head;      // Part header, before the file
+    private final byte[] tail;      // Closing boundary, after the file
+    private final long size;        // File size when the body was built
+
+    // Specified constructor sends 'file' between multipart 'head' and 'tail'
+    public FileUpload(Path file, String head, String tail) throws IOException {
+        this.file = file;
+        this.head = head.getBytes(StandardCharsets.UTF_8);
+        this.tail = tail.getBytes(StandardCharsets.UTF_8);
+        size = Files.size(file);
+    }
+
+    // Throw ScanException if file at 'file' is larger than 'maxBytes', so
+    // it is looked up by hash only and never uploaded
+    public static void checkSize(Path file, long maxBytes) {
+        long fileSize;
+        try {
+            fileSize = Files.size(file);
+        }
+        catch (IOException e) {
+            throw new ScanException("Could not read \"" + file + "\"", e);
+        }
+        if (fileSize > maxBytes)
+            throw new ScanException("\"" + file + "\" is "
+                                            + fileSize / BYTES_PER_MB
+                                            + " MB, over the "
+                                            + maxBytes / BYTES_PER_MB
+                                            + " MB upload limit, and"
+                                            + " VirusTotal has no report for"
+                                            + " its hash");
+    }
+
+    // Return 'mb' megabytes in bytes
+    public static long megabytes(int mb) {
+        return mb * BYTES_PER_MB;
+    }
+
+    // Return length of the whole body
+    public long contentLength() {
+        return head.length + size + tail.length;
+    }
+
+    // Stream body to 'subscriber' from a channel of its own, so a retried
+    // request reads the file again from the start
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) { }
+                public void cancel() { }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        subscriber.onSubscribe(new Chunks(channel, subscriber));
+    }
+
+    // Hands out the head, the file one CHUNK_SIZE chunk at a time, then the
+    // tail, one buffer per item the subscriber requested
+    private class Chunks implements Flow.Subscription {
+
+        // Instance variables
+        private final FileChannel channel;
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand;        // Buffers requested, not sent
+        private final AtomicInteger draining;   // Guards against reentry
+        private long position;                  // -1 before the head,
+                                                // size + 1 after the tail
+        private volatile boolean done;          // Completed or cancelled
+
+        // Specified constructor sends to 'subscriber' from 'channel'
+        private Chunks(FileChannel channel,
+                       Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.channel = channel;
+            this.subscriber = subscriber;
+            demand = new AtomicLong();
+            draining = new AtomicInteger();
+            position = -1;
+        }
+
+        // Subscriber wants 'n' more buffers
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE
+                    : a + b);
+            drain();
+        }
+
+        // Subscriber gave up
+        public void cancel() {
+            done = true;
+            close();
+        }
+
+        // Send buffers while there is demand; a request() made from inside
+        // onNext() is picked up by the loop instead of recursing
+        private void drain() {
+            if (draining.getAndIncrement() != 0)
+                return;
+            do {
+                while (!done && demand.get() > 0) {
+                    ByteBuffer next;
+                    try {
+                        next = next();
+                    }
+                    catch (IOException e) {
+                        fail(e);
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+
+                    // Tail was the last buffer
+                    if (position > size) {
+                        done = true;
+                        close();
+                        subscriber.onComplete();
+                    }
+                }
+            } while (draining.decrementAndGet() != 0);
+        }
+
+        // Return next buffer of the body: head, file chunks, then tail
+        private ByteBuffer next() throws IOException {
+            if (position < 0) {
+                position = 0;
+                return ByteBuffer.wrap(head);
+            }
+
+            // Next chunk of the file; a file that shrank since the body was
+            // built can't match the promised length
+            if (position < size) {
+                ByteBuffer chunk = ByteBuffer.allocate(
+                        (int) Math.min(CHUNK_SIZE, size - position));
+                while (chunk.hasRemaining()) {
+                    int read = channel.read(chunk, position);
+                    if (read < 0)
+                        throw new IOException("\"" + file + "\" changed"
+                                                      + " while uploading");
+                    position += read;
+                }
+                return chunk.flip();
+            }
+
+            // Tail
+            position = size + 1;
+            return ByteBuffer.wrap(tail);
+        }
+
+        // End stream with 'e'
+        private void fail(Throwable e) {
+            if (done)
+                return;
+            done = true;
+            close();
+            subscriber.onError(e);
+        }
+
+        // Close file
+        private void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                // Nothing left to read anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Local set of SHA-256 hashes (an allowlist of known-good files or a
+ * denylist of known-bad ones) checked before anything is sent to
+ * VirusTotal. A text list (one hash per line, or sha256sum output) is
+ * compiled into a sorted binary index of 32-byte hashes in ~/.vt/index,
+ * compiled again whenever the list's size or last-modified time is no
+ * longer the one recorded in the index, and memory-mapped, so a list of
+ * millions of hashes is looked up by binary search without loading it
+ * onto the heap. A Bloom filter built when the index is opened answers
+ * most lookups of unlisted files without touching the index at all.
+ */
+
+// Import libraries
+// io, nio - list and memory-mapped index files
+// security - name index after the list
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+
+public class HashIndex {
+
+    // Constants
+    private static final byte[] MAGIC
+            = "VTHASH02".getBytes(StandardCharsets.US_ASCII);
+    // MAGIC, then size and last-modified time (ms) of the compiled list
+    private static final int HEADER_BYTES = MAGIC.length + 2 * Long.BYTES;
+    private static final int HASH_LONGS = 4;                    // 256 bits
+    private static final int HASH_BYTES = HASH_LONGS * Long.BYTES;
+    private static final int HASH_HEX_LEN = 64;
+    private static final long MAX_HASHES
+            = (Integer.MAX_VALUE - HEADER_BYTES) / HASH_BYTES;
+    private static final int BLOOM_BITS_PER_HASH = 10;         // ~1% false
+    private static final int BLOOM_PROBES = 7;                  // positives
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Instance variables
+    private final MappedByteBuffer index;   // Header, then sorted hashes
+    private final int size;                 // Hashes in the index
+    private final long[] bloom;             // Bloom filter bits
+    private final long bloomMask;           // Bloom filter bits - 1
+
+    // Specified constructor maps index file 'file'
+    private HashIndex(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES
+                    || (length - HEADER_BYTES) % HASH_BYTES != 0)
+                throw new IOException("\"" + file + "\" is not a hash index");
+            if ((length - HEADER_BYTES) / HASH_BYTES > MAX_HASHES)
+                throw new IOException("\"" + file + "\" holds more than "
+                                              + MAX_HASHES + " hashes");
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            size = (int) ((length - HEADER_BYTES) / HASH_BYTES);
+        }
+
+        // Power-of-two Bloom filter of about BLOOM_BITS_PER_HASH bits per
+        // hash, filled in one sequential pass over the index
+        long bits = Long.highestOneBit(
+                Math.max(Long.SIZE, (long) size * BLOOM_BITS_PER_HASH) - 1)
+                << 1;
+        bloom = new long[(int) (bits / Long.SIZE)];
+        bloomMask = bits - 1;
+        for (int i = 0; i < size; i++) {
+            int offset = HEADER_BYTES + i * HASH_BYTES;
+            long first = index.getLong(offset + Long.BYTES);
+            long second = index.getLong(offset + 2 * Long.BYTES) | 1;
+            for (int probe = 0; probe < BLOOM_PROBES; probe++) {
+                long bit = (first + probe * second) & bloomMask;
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    // Return index of list 'list': the list itself if it is already a
+    // binary index, else its compiled index in ~/.vt/index, compiled again
+    // whenever the list changed (even to an older copy) since
+    public static HashIndex open(Path list) throws IOException {
+        if (isIndex(list))
+            return new HashIndex(list);
+        Path file = defaultFile(list);
+        if (!isCompiledFrom(file, list))
+            compile(list, file);
+        return new HashIndex(file);
+    }
+
+    // Return ~/.vt/index/<SHA-256 of absolute path of 'list'>.idx
+    public static Path defaultFile(Path list) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = FileHash.toHex(digest.digest(
+                list.toAbsolutePath().normalize().toString()
+                    .getBytes(StandardCharsets.UTF_8)));
+        return Paths.get(System.getProperty("user.home"), ".vt", "index",
+                         name + INDEX_SUFFIX);
+    }
+
+    // Write hashes of text list 'list' (lines starting with a hex SHA-256
+    // hash; anything else is skipped) sorted and without duplicates to
+    // index file 'file', replacing it in one move
+    public static void compile(Path list, Path file) throws IOException {
+
+        // Taken before reading, so a list changed while being read is
+        // compiled again next time
+        BasicFileAttributes attributes = Files.readAttributes(
+                list, BasicFileAttributes.class);
+
+        // Every hash of the list, HASH_LONGS longs each
+        long[] hashes = new long[1024 * HASH_LONGS];
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(
+                list, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() < HASH_HEX_LEN
+                        || line.length() > HASH_HEX_LEN
+                        && !isSeparator(line.charAt(HASH_HEX_LEN)))
+                    continue;
+
+                // Make room for one more hash
+                if ((count + 1) * HASH_LONGS > hashes.length) {
+                    if (count >= MAX_HASHES)
+                        throw new IOException("\"" + list + "\" holds more"
+                                                      + " than " + MAX_HASHES
+                                                      + " hashes");
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                if (parse(line, hashes, count * HASH_LONGS))
+                    count++;
+            }
+        }
+        sort(hashes, 0, count);
+
+        // Sorted hashes, each once
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.write(MAGIC);
+            out.writeLong(attributes.size());
+            out.writeLong(attributes.lastModifiedTime().toMillis());
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && compare(hashes, i - 1, i) == 0)
+                    continue;
+                for (int j = 0; j < HASH_LONGS; j++)
+                    out.writeLong(hashes[i * HASH_LONGS + j]);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Return number of hashes in the index
+    public int size() {
+        return size;
+    }
+
+    // Return whether hex 'sha256' is in the index
+    public boolean contains(String sha256) {
+        long[] hash = new long[HASH_LONGS];
+        if (sha256.length() != HASH_HEX_LEN || !parse(sha256, hash, 0))
+            return false;
+
+        // Definitely not listed if any of its Bloom filter bits is clear
+        long second = hash[2] | 1;
+        for (int probe = 0; probe < BLOOM_PROBES; probe++) {
+            long bit = (hash[1] + probe * second) & bloomMask;
+            if ((bloom[(int) (bit >>> 6)] & 1L << bit) == 0)
+                return false;
+        }
+
+        // Binary search of the mapped index
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = HEADER_BYTES + mid * HASH_BYTES;
+            int cmp = 0;
+            for (int j = 0; j < HASH_LONGS && cmp == 0; j++)
+                cmp = Long.compareUnsigned(
+                        index.getLong(offset + j * Long.BYTES), hash[j]);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    // Return whether file at 'file' starts with the index MAGIC
+    private static boolean isIndex(Path file) throws IOException {
+        return Arrays.equals(readStart(file, MAGIC.length), MAGIC);
+    }
+
+    // Return whether index file 'file' exists and records the size and
+    // last-modified time 'list' has now
+    private static boolean isCompiledFrom(Path file, Path list)
+            throws IOException {
+        if (!Files.isRegularFile(file))
+            return false;
+        BasicFileAttributes attributes = Files.readAttributes(
+                list, BasicFileAttributes.class);
+        ByteBuffer header = ByteBuffer.wrap(readStart(file, HEADER_BYTES));
+        return Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length),
+                             MAGIC)
+                && header.getLong(MAGIC.length) == attributes.size()
+                && header.getLong(MAGIC.length + Long.BYTES)
+                        == attributes.lastModifiedTime().toMillis();
+    }
+
+    // Return first 'length' bytes of file at 'file', zero-padded if it is
+    // shorter
+    private static byte[] readStart(Path file, int length)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(length);
+            while (start.hasRemaining() && channel.read(start) >= 0);
+            return start.array();
+        }
+    }
+
+    // Return whether 'c' can end the hash at the start of a list line
+    private static boolean isSeparator(char c) {
+        return Character.isWhitespace(c) || c == ',' || c == ';';
+    }
+
+    // Parse the hex hash at the start of 'hex' into 'hashes' from 'offset'
+    // and return whether it was a hash
+    private static boolean parse(String hex, long[] hashes, int offset) {
+        try {
+            for (int j = 0; j < HASH_LONGS; j++) {
+                String word = hex.substring(j * 16, (j + 1) * 16);
+                if (word.charAt(0) == '+' || word.charAt(0) == '-')
+                    return false;
+                hashes[offset + j] = Long.parseUnsignedLong(word, 16);
+            }
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Sort hashes 'from' (inclusive) to 'to' (exclusive) of 'hashes'
+    private static void sort(long[] hashes, int from, int to) {
+        long[] pivot = new long[HASH_LONGS];
+        while (to - from > 1) {
+
+            // Partition around the middle hash into smaller, equal and
+            // larger hashes, so a list repeating a hash many times doesn't
+            // take quadratic time
+            System.arraycopy(hashes, (from + (to - from) / 2) * HASH_LONGS,
+                             pivot, 0, HASH_LONGS);
+            int less = from;
+            int greater = to;
+            int i = from;
+            while (i < greater) {
+                int cmp = compare(hashes, i, pivot);
+                if (cmp < 0)
+                    swap(hashes, less++, i++);
+                else if (cmp > 0)
+                    swap(hashes, i, --greater);
+                else
+                    i++;
+            }
+
+            // Recurse into the smaller side, loop on the larger one
+            if (less - from < to - greater) {
+                sort(hashes, from, less);
+                from = greater;
+            }
+            else {
+                sort(hashes, greater, to);
+                to = less;
+            }
+        }
+    }
+
+    // Compare hashes 'a' and 'b' of 'hashes' as unsigned 256-bit numbers
+    private static int compare(long[] hashes, int a, int b) {
+        for (int j = 0; j < HASH_LONGS; j++) {
+            int cmp = Long.compareUnsigned(hashes[a * HASH_LONGS + j],
+                                           hashes[b * HASH_LONGS + j]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    // Compare hash 'a' of 'hashes' with 'hash' as unsigned 256-bit numbers
+    private static int compare(long[] hashes, int a, long[] hash) {
+        for (int j = 0; j < HASH_LONGS; j++) {
+            int cmp = Long.compareUnsigned(hashes[a * HASH_LONGS + j],
+                                           hash[j]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    // Swap hashes 'a' and 'b' of 'hashes'
+    private static void swap(long[] hashes, int a, int b) {
+        for (int j = 0; j < HASH_LONGS; j++) {
+            long word = hashes[a * HASH_LONGS + j];
+            hashes[a * HASH_LONGS + j] = hashes[b * HASH_LONGS + j];
+            hashes[b * HASH_LONGS + j] = word;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Append-only record of a batch run, so a batch that dies part way (crash,
+ * kill, reboot) can be picked up with --resume instead of run again from
+ * the start. Every file is recorded as queued when it is handed to a
+ * worker, submitted when a worker starts scanning it and completed, with
+ * its <engine, result> pairs, when its results are in; one JSON object per
+ * line, the same shape the daemon answers with:
+ *     {"state": "queued", "file": ABSOLUTE_PATH, "sha256": HASH}
+ *     {"state": "submitted", "file": ..., "sha256": ...}
+ *     {"state": "completed", "file": ..., "sha256": ...,
+ *      "results": [{"engine": ..., "result": ...}]}
+ * Records are written and fsynced in batches, at most FLUSH_MILLIS apart,
+ * instead of once per record; a crash loses at most the last batch, and a
+ * line cut short by the crash is skipped when the journal is read back.
+ */
+
+// Import libraries
+// io, nio - journal file
+// concurrent - background flushes
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+public class Journal {
+
+    // Constants
+    public static final String QUEUED = "queued";
+    public static final String SUBMITTED = "submitted";
+    public static final String COMPLETED = "completed";
+    private static final long FLUSH_MILLIS = 200;
+    private static final int NOT_COMPLETED = -1;
+    private static final int COMPLETED_NOW = -2;    // Results not kept
+    private static final String JOURNAL_SUFFIX = ".jsonl";
+    private static final DateTimeFormatter NAME_FORMAT
+            = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // Instance variables
+    private final Path file;                        // Where records go
+    private final FileChannel channel;              // Appends to 'file'
+    private final StringBuilder pending;            // Records not written
+    private final ScheduledExecutorService flusher; // Writes 'pending'
+    private final ST<String, Entry> entries;        // Last record per file
+    private final List<String> files;               // In first-seen order
+    private final ResultStore loaded;               // Results read back
+    private boolean closed;                         // No more records
+
+    // Specified constructor reads journal 'file' (if any) and appends new
+    // records to it
+    public Journal(Path file) throws IOException {
+        this.file = file;
+        entries = new ST<String, Entry>();
+        files = new ArrayList<String>();
+        loaded = new ResultStore(false);
+        load();
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        pending = new StringBuilder();
+
+        // Start on a line of its own after a line cut short by a crash
+        if (!endsWithNewline())
+            pending.append('\n');
+
+        // Write and fsync whatever piled up every FLUSH_MILLIS
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vt-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS,
+                                       FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Return ~/.vt/journals/<date>-<time>-<pid>.jsonl for a new batch
+    public static Path defaultFile() {
+        String name = LocalDateTime.now().format(NAME_FORMAT) + "-"
+                + ProcessHandle.current().pid() + JOURNAL_SUFFIX;
+        return Paths.get(System.getProperty("user.home"), ".vt", "journals",
+                         name);
+    }
+
+    // Return where records are written
+    public Path getFile() {
+        return file;
+    }
+
+    // Return absolute paths of every file in the journal, in the order
+    // they were first recorded
+    public synchronized List<String> files() {
+        return new ArrayList<String>(files);
+    }
+
+    // Return <engine, result> pairs read back from the journal for file at
+    // 'absFilePath' if it completed with 'sha256' hash, else null
+    public synchronized ST<String, String> results(String absFilePath,
+                                                   String sha256) {
+        Entry entry = entries.get(absFilePath);
+        if (entry == null || entry.results < 0
+                || !entry.sha256.equals(sha256))
+            return null;
+        return loaded.get(entry.results);
+    }
+
+    // Return number of files that completed
+    public synchronized int countCompleted() {
+        int completed = 0;
+        for (String absFilePath : files)
+            if (entries.get(absFilePath).results != NOT_COMPLETED)
+                completed++;
+        return completed;
+    }
+
+    // Record that file at 'absFilePath' with 'sha256' hash waits for a
+    // worker
+    public void queued(String absFilePath, String sha256) {
+        append(QUEUED, absFilePath, sha256, null);
+    }
+
+    // Record that a worker started scanning file at 'absFilePath' with
+    // 'sha256' hash
+    public void submitted(String absFilePath, String sha256) {
+        append(SUBMITTED, absFilePath, sha256, null);
+    }
+
+    // Record <engine, result> pairs 'rawScanResults' of file at
+    // 'absFilePath' with 'sha256' hash
+    public void completed(String absFilePath, String sha256,
+                          ST<String, String> rawScanResults) {
+        append(COMPLETED, absFilePath, sha256, rawScanResults);
+    }
+
+    // Write and fsync the records not written yet
+    public synchronized void flush() {
+        if (pending.length() == 0 || !channel.isOpen())
+            return;
+        try {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(
+                    pending.toString());
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            channel.force(false);
+            pending.setLength(0);
+        }
+
+        // Keep the records and try again on the next flush
+        catch (IOException e) {
+            // Nothing else to do from the flusher thread
+        }
+    }
+
+    // Write the last records and stop; later records are dropped
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        flusher.shutdown();
+        flush();
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            // Everything that could be written was
+        }
+    }
+
+    // Record 'state' of file at 'absFilePath' with 'sha256' hash and, if
+    // completed, its 'rawScanResults'
+    private synchronized void append(String state, String absFilePath,
+                                     String sha256,
+                                     ST<String, String> rawScanResults) {
+        if (closed)
+            return;
+        remember(absFilePath, sha256, rawScanResults == null ? NOT_COMPLETED
+                : COMPLETED_NOW);
+
+        pending.append("{\"state\":").append(Json.quote(state));
+        pending.append(",\"file\":").append(Json.quote(absFilePath));
+        pending.append(",\"sha256\":").append(Json.quote(sha256));
+        if (rawScanResults != null) {
+            pending.append(",\"results\":[");
+            boolean first = true;
+            for (String engine : rawScanResults.keys()) {
+                if (!first)
+                    pending.append(',');
+                pending.append("{\"engine\":").append(Json.quote(engine));
+                pending.append(",\"result\":")
+                       .append(Json.quote(rawScanResults.get(engine)));
+                pending.append('}');
+                first = false;
+            }
+            pending.append(']');
+        }
+        pending.append("}\n");
+    }
+
+    // Keep latest state of file at 'absFilePath' with 'sha256' hash in
+    // memory: 'results' is its index in 'loaded', NOT_COMPLETED or
+    // COMPLETED_NOW; a completed file stays completed unless its hash
+    // changed
+    private void remember(String absFilePath, String sha256, int results) {
+        Entry entry = entries.get(absFilePath);
+        if (entry == null)
+            files.add(absFilePath);
+        else if (results == NOT_COMPLETED && entry.results != NOT_COMPLETED
+                && entry.sha256.equals(sha256))
+            return;
+        entries.put(absFilePath, new Entry(sha256, results));
+    }
+
+    // Read records already in the journal file
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(
+                file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Object record;
+                try {
+                    record = Json.parse(line);
+                }
+
+                // Line cut short by a crash
+                catch (IllegalArgumentException e) {
+                    continue;
+                }
+                Object absFilePath = Json.get(record, "file");
+                Object sha256 = Json.get(record, "sha256");
+                if (!(absFilePath instanceof String)
+                        || !(sha256 instanceof String))
+                    continue;
+
+                // Rebuild <engine, result> pairs of completed files
+                Object results = Json.get(record, "results");
+                if (!COMPLETED.equals(Json.get(record, "state"))
+                        || !(results instanceof List)) {
+                    remember((String) absFilePath, (String) sha256,
+                             NOT_COMPLETED);
+                    continue;
+                }
+                ST<String, String> rawScanResults = new ST<String, String>();
+                for (Object result : (List<?>) results) {
+                    Object engine = Json.get(result, "engine");
+                    Object verdict = Json.get(result, "result");
+
+                    // Entry cut short or edited by hand
+                    if (!(engine instanceof String)
+                            || !(verdict instanceof String))
+                        continue;
+                    rawScanResults.put((String) engine, (String) verdict);
+                }
+                remember((String) absFilePath, (String) sha256,
+                         loaded.add((String) absFilePath, (String) sha256,
+                                    rawScanResults));
+            }
+        }
+
+        // New journal
+        catch (NoSuchFileException e) {
+            return;
+        }
+    }
+
+    // Return whether the journal file is empty or ends with a newline
+    private boolean endsWithNewline() throws IOException {
+        try (FileChannel reader = FileChannel.open(file,
+                                                   StandardOpenOption.READ)) {
+            if (reader.size() == 0)
+                return true;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            reader.read(last, reader.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    // Hash and where the <engine, result> pairs are of one file
+    private static class Entry {
+        private final String sha256;
+        private final int results;
+
+        private Entry(String sha256, int results) {
+            this.sha256 = sha256;
+            this.results = results;
+        }
+    }
+}
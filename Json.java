@@ -0,0 +1,243 @@
+/*
+ * Minimal JSON reader and string quoting for the VirusTotal REST API and
+ * the machine-readable output formats. Objects are read into Maps, arrays
+ * into Lists, numbers into Doubles, and true/false/null into Boolean/null.
+ */
+
+// Import libraries
+// util - parsed objects and arrays
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class Json {
+
+    // Instance variables
+    private final String text;  // JSON text being read
+    private int pos;            // Index of next character to read
+
+    // Specified constructor reads 'text'
+    private Json(String text) {
+        this.text = text;
+        pos = 0;
+    }
+
+    // Return value of JSON 'text'; throw IllegalArgumentException if 'text'
+    // isn't valid JSON
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.pos != text.length())
+            throw json.error("Unexpected trailing characters");
+        return value;
+    }
+
+    // Return the value found by following 'keys' through nested objects
+    // from 'value', or null if any of them is missing
+    public static Object get(Object value, String... keys) {
+        for (String key : keys) {
+            if (!(value instanceof Map))
+                return null;
+            value = ((Map<?, ?>) value).get(key);
+        }
+        return value;
+    }
+
+    // Return 'str' as a quoted JSON string
+    public static String quote(String str) {
+        StringBuilder quoted = new StringBuilder(str.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+            }
+        }
+        quoted.append('"');
+        return quoted.toString();
+    }
+
+    // Read any JSON value
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length())
+            throw error("Unexpected end of JSON");
+
+        char c = text.charAt(pos);
+        if (c == '{')
+            return readObject();
+        if (c == '[')
+            return readArray();
+        if (c == '"')
+            return readString();
+        if (text.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        return readNumber();
+    }
+
+    // Read JSON object into a Map that keeps key order
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return object;
+        }
+    }
+
+    // Read JSON array into a List
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return array;
+        }
+    }
+
+    // Read JSON string, resolving escapes
+    private String readString() {
+        expect('"');
+        StringBuilder str = new StringBuilder();
+        while (true) {
+            if (pos >= text.length())
+                throw error("Unterminated string");
+            char c = text.charAt(pos++);
+            if (c == '"')
+                return str.toString();
+            if (c != '\\') {
+                str.append(c);
+                continue;
+            }
+            if (pos >= text.length())
+                throw error("Unterminated string");
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    str.append('\b');
+                    break;
+                case 'f':
+                    str.append('\f');
+                    break;
+                case 'n':
+                    str.append('\n');
+                    break;
+                case 'r':
+                    str.append('\r');
+                    break;
+                case 't':
+                    str.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length())
+                        throw error("Bad unicode escape");
+                    str.append((char) Integer.parseInt(
+                            text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    str.append(escaped);
+            }
+        }
+    }
+
+    // Read JSON number
+    private Double readNumber() {
+        int start = pos;
+        while (pos < text.length()
+                && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+            pos++;
+        if (start == pos)
+            throw error("Unexpected character");
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        }
+        catch (NumberFormatException e) {
+            throw error("Bad number");
+        }
+    }
+
+    // Skip spaces, tabs and line breaks
+    private void skipWhitespace() {
+        while (pos < text.length()
+                && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+
+    // Return next character without reading it, or 0 at the end
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    // Read 'c' or throw
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    // Return exception describing 'problem' at the current position
+    private IllegalArgumentException error(String problem) {
+        return new IllegalArgumentException(problem + " at index " + pos
+                                                    + " of JSON");
+    }
+}
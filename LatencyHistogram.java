@@ -0,0 +1,99 @@
+/*
+ * Thread-safe latency histogram with log-linear buckets, the layout
+ * HdrHistogram uses: every power of two is split into 64 equal buckets, so a
+ * recorded time is off by at most 1/64 (1.6%) however large it is, and
+ * percentiles come from walking a fixed array of counts instead of keeping
+ * every sample. Times are recorded in nanoseconds.
+ */
+
+// Import libraries
+// concurrent - counts updated by every worker at once
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public class LatencyHistogram {
+
+    // Constants
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;    // 128
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;    // 64
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    // Instance variables
+    private final AtomicLongArray counts;   // Samples per bucket
+    private final AtomicLong count;         // Samples recorded
+    private final AtomicLong sum;           // Total of all samples
+    private final AtomicLong max;           // Largest sample
+
+    // Default constructor starts an empty histogram
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    // Record one sample of 'nanos' nanoseconds (negative counts as 0)
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    // Return number of samples recorded
+    public long getCount() {
+        return count.get();
+    }
+
+    // Return total of all samples in nanoseconds
+    public long getSum() {
+        return sum.get();
+    }
+
+    // Return largest sample in nanoseconds
+    public long getMax() {
+        return max.get();
+    }
+
+    // Return the sample (nanoseconds) that 'quantile' (0 to 1) of all
+    // samples are at or below, or 0 if nothing was recorded
+    public long percentile(double quantile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        // Walk buckets until 'rank' samples are covered and return the
+        // largest time that bucket holds
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Return bucket of 'value': values under SUB_BUCKETS have a bucket each,
+    // above that each power of two has HALF_SUB_BUCKETS buckets
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value)
+                - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Return largest value that falls into bucket 'index'
+    private static long highest(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Lean browsing profile (--lean) layered on the ChromeOptions of
+ * VT.startDriver. The scripts in VT.java only read a few shadow-DOM nodes
+ * of the VirusTotal GUI, so images, fonts, media and third-party trackers
+ * are blocked with the DevTools Network.setBlockedURLs command, Chrome
+ * features a scan never uses are switched off, and the HTTP cache lives in
+ * a directory under ~/.vt/chrome-cache that outlives the browser, so the
+ * GUI's static JavaScript bundles are loaded from disk after the first
+ * browser fetched them. Each browser locks a cache directory of its own,
+ * since Chrome doesn't share one between running browsers.
+ */
+
+// Import libraries
+// selenium - Chrome options and DevTools commands
+// io, nio - cache directory lock
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.chromium.HasCdp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class LeanProfile {
+
+    // Constants
+    private static final int MAX_CACHES = 64;                   // Browsers
+    private static final long CACHE_BYTES = 256L * 1024 * 1024; // Each
+    private static final String LOCK_FILE = "vt.lock";
+
+    // Requests a scan never needs: images, fonts, media and trackers
+    private static final List<String> BLOCKED_URLS = List.of(
+            "*.png", "*.jpg", "*.jpeg", "*.gif", "*.webp", "*.avif",
+            "*.ico", "*.bmp",
+            "*.woff", "*.woff2", "*.ttf", "*.otf", "*.eot",
+            "*.mp4", "*.webm", "*.mp3", "*.ogg", "*.wav",
+            "*google-analytics.com*", "*googletagmanager.com*",
+            "*doubleclick.net*", "*googleadservices.com*",
+            "*googlesyndication.com*", "*facebook.net*", "*hotjar.com*");
+
+    // Chrome features a scan never uses
+    private static final List<String> ARGUMENTS = List.of(
+            "--blink-settings=imagesEnabled=false",
+            "--disable-background-networking",
+            "--disable-component-update",
+            "--disable-default-apps",
+            "--disable-extensions",
+            "--disable-sync",
+            "--disable-features=Translate,MediaRouter,OptimizationHints,"
+                    + "AutofillServerCommunication",
+            "--metrics-recording-only",
+            "--mute-audio",
+            "--no-first-run");
+
+    // Instance variables
+    private final Path cacheDir;        // HTTP cache, or null
+    private final FileLock lock;        // Keeps other browsers out of it
+
+    // Specified constructor keeps the HTTP cache in 'cacheDir', held by
+    // 'lock'
+    private LeanProfile(Path cacheDir, FileLock lock) {
+        this.cacheDir = cacheDir;
+        this.lock = lock;
+    }
+
+    // Return lean profile with the first free cache directory in
+    // ~/.vt/chrome-cache locked; without one, the browser keeps Chrome's
+    // own short-lived cache
+    public static LeanProfile open() {
+        Path root = Paths.get(System.getProperty("user.home"), ".vt",
+                              "chrome-cache");
+        for (int i = 0; i < MAX_CACHES; i++) {
+            Path dir = root.resolve(Integer.toString(i));
+            FileChannel channel = null;
+            try {
+                Files.createDirectories(dir);
+                channel = FileChannel.open(dir.resolve(LOCK_FILE),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock();
+                if (lock != null)
+                    return new LeanProfile(dir, lock);
+            }
+
+            // Another browser of this JVM has it, or it can't be made
+            catch (IOException | OverlappingFileLockException e) {
+                // Try the next one
+            }
+            close(channel);
+        }
+        return new LeanProfile(null, null);
+    }
+
+    // Add lean settings to 'options' of a browser about to start
+    public void apply(ChromeOptions options) {
+        options.addArguments(ARGUMENTS);
+        if (cacheDir != null)
+            options.addArguments("--disk-cache-dir=" + cacheDir,
+                                 "--disk-cache-size=" + CACHE_BYTES);
+
+        // Images aren't even decoded
+        Map<String, Object> prefs = new HashMap<String, Object>();
+        prefs.put("profile.managed_default_content_settings.images", 2);
+        options.setExperimentalOption("prefs", prefs);
+    }
+
+    // Block images, fonts, media and trackers in started browser 'driver'
+    public void block(WebDriver driver) {
+        if (!(driver instanceof HasCdp))
+            return;
+        HasCdp cdp = (HasCdp) driver;
+        cdp.executeCdpCommand("Network.enable", new HashMap<String, Object>());
+        Map<String, Object> blocked = new HashMap<String, Object>();
+        blocked.put("urls", BLOCKED_URLS);
+        cdp.executeCdpCommand("Network.setBlockedURLs", blocked);
+    }
+
+    // Let another browser have the cache directory
+    public void close() {
+        if (lock != null)
+            close(lock.channel());
+    }
+
+    // Close 'channel' if not null
+    private static void close(FileChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            // Nothing was written to it
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Record of the files a --dir run scanned: path, size, last-modified time
+ * and SHA-256 hash of each. A later run of the same directory only hashes
+ * files whose size or last-modified time changed and only submits files
+ * whose hash changed, so a repeat sweep costs time in proportion to what
+ * changed. Stored as one "sha256<TAB>size<TAB>modified<TAB>path" line per
+ * file in ~/.vt/manifests, one manifest per directory.
+ */
+
+// Import libraries
+// io, nio - manifest file
+// security - name manifest after the directory
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+public class Manifest {
+
+    // Constants
+    private static final String SEPARATOR = "\t";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String MANIFEST_SUFFIX = ".txt";
+
+    // Instance variables
+    private final Path file;                // Where the manifest is stored
+    private final ST<String, Entry> entries;    // Entry per absolute path
+
+    // Specified constructor starts an empty manifest stored at 'file'
+    public Manifest(Path file) {
+        this.file = file;
+        entries = new ST<String, Entry>();
+    }
+
+    // Return ~/.vt/manifests/<SHA-256 of absolute path of 'dir'>.txt
+    public static Path defaultFile(Path dir) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = FileHash.toHex(digest.digest(
+                dir.toAbsolutePath().normalize().toString()
+                   .getBytes(StandardCharsets.UTF_8)));
+        return Paths.get(System.getProperty("user.home"), ".vt", "manifests",
+                         name + MANIFEST_SUFFIX);
+    }
+
+    // Return manifest stored at 'file', or an empty one if there is none or
+    // it can't be read
+    public static Manifest load(Path file) {
+        Manifest manifest = new Manifest(file);
+        try (BufferedReader reader = Files.newBufferedReader(
+                file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, 4);
+                if (fields.length == 4)
+                    manifest.entries.put(fields[3], new Entry(
+                            Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), fields[0]));
+            }
+        }
+
+        // Missing or damaged manifest means every file is new
+        catch (NoSuchFileException e) {
+            return manifest;
+        }
+        catch (IOException | NumberFormatException e) {
+            return new Manifest(file);
+        }
+        return manifest;
+    }
+
+    // Return hash recorded for file at 'absFilePath' if its size and
+    // last-modified time still match 'attrs', else null; a file recorded
+    // without a hash (it couldn't be read) counts as changed
+    public String unchangedSha256(String absFilePath,
+                                  BasicFileAttributes attrs) {
+        Entry entry = entries.get(absFilePath);
+        if (entry == null || entry.sha256.isEmpty()
+                || entry.size != attrs.size()
+                || entry.modified != attrs.lastModifiedTime().toMillis())
+            return null;
+        return entry.sha256;
+    }
+
+    // Return hash recorded for file at 'absFilePath', or null if none
+    public String sha256(String absFilePath) {
+        Entry entry = entries.get(absFilePath);
+        return entry == null ? null : entry.sha256;
+    }
+
+    // Record file at 'absFilePath' with 'attrs' and 'sha256' hash; a file
+    // without a hash ("", it couldn't be read) isn't recorded, so the next
+    // run tries it again
+    public void put(String absFilePath, BasicFileAttributes attrs,
+                    String sha256) {
+        if (sha256.isEmpty())
+            return;
+        entries.put(absFilePath, new Entry(
+                attrs.size(), attrs.lastModifiedTime().toMillis(), sha256));
+    }
+
+    // Return number of files recorded
+    public int size() {
+        return entries.size();
+    }
+
+    // Store manifest, replacing the old one in one move so an interrupted
+    // run never leaves half a manifest
+    public void save() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                temp, StandardCharsets.UTF_8)) {
+            for (String absFilePath : entries.keys()) {
+
+                // A line break in a file name would split its line
+                if (absFilePath.indexOf('\n') >= 0
+                        || absFilePath.indexOf('\r') >= 0)
+                    continue;
+                Entry entry = entries.get(absFilePath);
+                writer.write(entry.sha256 + SEPARATOR + entry.size + SEPARATOR
+                                     + entry.modified + SEPARATOR
+                                     + absFilePath);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Size, last-modified time (milliseconds) and hash of one file
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String sha256;
+
+        private Entry(long size, long modified, String sha256) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+        }
+    }
+}
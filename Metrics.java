@@ -0,0 +1,202 @@
+/*
+ * Latency of each phase of a scan (browser startup, page loads, report
+ * lookup, upload, waiting for engines, result extraction, hashing, API
+ * requests and whole scans), kept in one LatencyHistogram per phase for the
+ * life of the process so batch, watch and daemon runs show percentiles
+ * across every file, along with the memory of the browser's processes
+ * after each browser scan. Printed with --metrics, written as a Prometheus
+ * text file with --metrics-file and served at
+ * http://127.0.0.1:PORT/metrics with --metrics-port.
+ */
+
+// Import libraries
+// io, nio - metrics file
+// net - metrics endpoint
+// concurrent - endpoint thread
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+
+public class Metrics {
+
+    // Phases, in the order they happen
+    public static final String DRIVER_START = "driver_start";
+    public static final String HASH = "hash";
+    public static final String PAGE_LOAD = "page_load";
+    public static final String LOOKUP = "lookup";
+    public static final String UPLOAD = "upload";
+    public static final String WAIT = "wait";
+    public static final String EXTRACT = "extract";
+    public static final String API_REQUEST = "api_request";
+    public static final String SCAN = "scan";
+    private static final String[] PHASES = { DRIVER_START, HASH, PAGE_LOAD,
+            LOOKUP, UPLOAD, WAIT, EXTRACT, API_REQUEST, SCAN };
+
+    // Constants
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+    private static final String METRIC = "vt_phase_seconds";
+    private static final String MEMORY_METRIC = "vt_browser_memory_bytes";
+    private static final String ENDPOINT = "/metrics";
+    private static final String CONTENT_TYPE
+            = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    // One histogram per phase, same order as PHASES
+    private static final LatencyHistogram[] HISTOGRAMS
+            = new LatencyHistogram[PHASES.length];
+
+    static {
+        for (int i = 0; i < PHASES.length; i++)
+            HISTOGRAMS[i] = new LatencyHistogram();
+    }
+
+    // Browser memory after each browser scan, in bytes instead of
+    // nanoseconds
+    private static final LatencyHistogram MEMORY = new LatencyHistogram();
+
+    // Don't instantiate
+    private Metrics() { }
+
+    // Record that 'phase' took from 'startedNanos' (System.nanoTime())
+    // until now
+    public static void record(String phase, long startedNanos) {
+        histogram(phase).record(System.nanoTime() - startedNanos);
+    }
+
+    // Record that the browser's processes used 'bytes' after a scan;
+    // ignored if 0 (memory couldn't be read)
+    public static void recordMemory(long bytes) {
+        if (bytes > 0)
+            MEMORY.record(bytes);
+    }
+
+    // Return histogram of 'phase'
+    public static LatencyHistogram histogram(String phase) {
+        for (int i = 0; i < PHASES.length; i++)
+            if (PHASES[i].equals(phase))
+                return HISTOGRAMS[i];
+        throw new IllegalArgumentException("Unknown phase " + phase);
+    }
+
+    // Return table of count, p50, p90, p99, max and total time (ms) of every
+    // phase that ran, then browser memory if any browser scan ran
+    public static String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT,
+                                     "%-13s%8s%11s%11s%11s%11s%12s%n",
+                                     "phase", "count", "p50 ms", "p90 ms",
+                                     "p99 ms", "max ms", "total ms"));
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram histogram = HISTOGRAMS[i];
+            if (histogram.getCount() == 0)
+                continue;
+            summary.append(String.format(
+                    Locale.ROOT, "%-13s%8d%11.1f%11.1f%11.1f%11.1f%12.1f%n",
+                    PHASES[i], histogram.getCount(),
+                    histogram.percentile(0.5) / NANOS_PER_MILLI,
+                    histogram.percentile(0.9) / NANOS_PER_MILLI,
+                    histogram.percentile(0.99) / NANOS_PER_MILLI,
+                    histogram.getMax() / NANOS_PER_MILLI,
+                    histogram.getSum() / NANOS_PER_MILLI));
+        }
+        if (MEMORY.getCount() > 0)
+            summary.append(String.format(
+                    Locale.ROOT, "%nBrowser memory after %d scans: p50 %.0f"
+                            + " MB, p90 %.0f MB, max %.0f MB%n",
+                    MEMORY.getCount(), MEMORY.percentile(0.5) / BYTES_PER_MB,
+                    MEMORY.percentile(0.9) / BYTES_PER_MB,
+                    MEMORY.getMax() / BYTES_PER_MB));
+        return summary.toString();
+    }
+
+    // Return every phase and browser memory as Prometheus summaries in text
+    // exposition format
+    public static String prometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP ").append(METRIC)
+            .append(" Time spent in each phase of a vt scan.\n");
+        text.append("# TYPE ").append(METRIC).append(" summary\n");
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram histogram = HISTOGRAMS[i];
+            String phase = "phase=\"" + PHASES[i] + "\"";
+            for (double quantile : QUANTILES)
+                text.append(METRIC).append('{').append(phase)
+                    .append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getCount() == 0 ? "NaN"
+                            : seconds(histogram.percentile(quantile)))
+                    .append('\n');
+            text.append(METRIC).append("_sum{").append(phase).append("} ")
+                .append(seconds(histogram.getSum())).append('\n');
+            text.append(METRIC).append("_count{").append(phase).append("} ")
+                .append(histogram.getCount()).append('\n');
+        }
+        text.append("# HELP ").append(MEMORY_METRIC)
+            .append(" Memory of the browser's processes after each scan.\n");
+        text.append("# TYPE ").append(MEMORY_METRIC).append(" summary\n");
+        for (double quantile : QUANTILES)
+            text.append(MEMORY_METRIC).append("{quantile=\"")
+                .append(quantile).append("\"} ")
+                .append(MEMORY.getCount() == 0 ? "NaN"
+                        : Long.toString(MEMORY.percentile(quantile)))
+                .append('\n');
+        text.append(MEMORY_METRIC).append("_sum ").append(MEMORY.getSum())
+            .append('\n');
+        text.append(MEMORY_METRIC).append("_count ")
+            .append(MEMORY.getCount()).append('\n');
+        return text.toString();
+    }
+
+    // Write prometheus() to 'file', replacing it in one move so a collector
+    // never reads half a file
+    public static void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        Files.write(temp, prometheus().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Serve prometheus() at http://127.0.0.1:'port'/metrics on a background
+    // thread until the program ends
+    public static void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(ENDPOINT, exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+
+        // Answer scrapes on one background thread
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vt-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    // Return 'nanos' as seconds
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / NANOS_PER_SECOND);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Schedules VirusTotal API requests from every worker through one queue so
+ * they stay within the API key's per-minute quota (a token bucket) and
+ * per-day quota (a DayQuota shared with other vt processes using the key)
+ * instead of running into HTTP 429 back-off storms. Pending
+ * requests are served by priority (hash lookups before analysis polls
+ * before uploads), and a request for something already in flight (e.g. the
+ * same hash looked up by two workers) waits for that request's answer
+ * instead of spending quota again. Once the day's quota is spent, requests
+ * fail at once instead of waiting for the next day, and a worker waits for
+ * its request no longer than its Waiter allows. Queue depth and time spent
+ * waiting for quota are kept for the end-of-run report.
+ */
+
+// Import libraries
+// nio - day quota usage file
+// concurrent - request queue, in-flight requests, dispatch
+// time - quota periods
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class QuotaScheduler {
+
+    // Constants
+    public static final int LOOKUP = 0;         // Highest priority
+    public static final int POLL = 1;
+    public static final int UPLOAD = 2;         // Lowest priority
+    public static final int DEFAULT_PER_MINUTE = 4;
+    public static final int DEFAULT_PER_DAY = 500;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    // Instance variables
+    private final TokenBucket perMinute;    // Per-minute quota
+    private final DayQuota perDay;          // Per-day quota
+    private final int dayLimit;             // Requests allowed per day
+    private final long refillMillis;        // Per-minute quota per request
+    private final PriorityBlockingQueue<Pending> queue;     // Waiting requests
+    private final Map<String, CompletableFuture<Object>> inFlight;
+    private final ExecutorService senders;  // Runs dispatched requests
+    private final AtomicLong sequence;      // Keeps equal priorities FIFO
+    private final AtomicLong sent;          // Requests sent
+    private final AtomicLong merged;        // Requests answered by another
+    private final AtomicLong waitedNanos;   // Total time waiting in queue
+    private final AtomicLong maxWaitNanos;  // Longest time waiting in queue
+    private final AtomicLong maxDepth;      // Most requests waiting at once
+
+    // Specified constructor allows 'perMinute' requests per minute and
+    // 'perDay' requests per UTC day, counted in this process only
+    public QuotaScheduler(int perMinute, int perDay) {
+        this(perMinute, perDay, null);
+    }
+
+    // Specified constructor allows 'perMinute' requests per minute and
+    // 'perDay' requests per UTC day, counted in usage file 'dayFile' shared
+    // with other processes (null to count in this process only)
+    public QuotaScheduler(int perMinute, int perDay, Path dayFile) {
+        this.perMinute = new TokenBucket(perMinute, Duration.ofMinutes(1));
+        this.perDay = new DayQuota(perDay, dayFile);
+        this.dayLimit = perDay;
+        this.refillMillis = MILLIS_PER_MINUTE / perMinute;
+        queue = new PriorityBlockingQueue<Pending>();
+        inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+        senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "vt-api-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sequence = new AtomicLong();
+        sent = new AtomicLong();
+        merged = new AtomicLong();
+        waitedNanos = new AtomicLong();
+        maxWaitNanos = new AtomicLong();
+        maxDepth = new AtomicLong();
+
+        // One dispatcher hands out quota in priority order
+        Thread dispatcher = new Thread(this::dispatch, "vt-api-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // Run 'call' for 'phase' (e.g. "GET /files/<hash>") once quota allows,
+    // ahead of lower 'priority' requests, and return its result; if a
+    // request with the same 'key' (null for none) is already in flight,
+    // return that request's result instead; throw ScanTimeoutException if
+    // there is no result within the limits of 'waiter'
+    public Object submit(String phase, String key, int priority,
+                         Waiter waiter, Callable<Object> call) {
+
+        // Merge with the same request already in flight
+        CompletableFuture<Object> answer = new CompletableFuture<Object>();
+        if (key != null) {
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(key,
+                                                                      answer);
+            if (existing != null) {
+                merged.incrementAndGet();
+                return await(existing, phase, waiter);
+            }
+        }
+
+        // Queue request and wait for its answer
+        queue.add(new Pending(priority, sequence.getAndIncrement(), call,
+                              answer));
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        try {
+            return await(answer, phase, waiter);
+        }
+        finally {
+            if (key != null)
+                inFlight.remove(key, answer);
+        }
+    }
+
+    // Spend the rest of this minute's quota, e.g. after VirusTotal answered
+    // HTTP 429, so queued requests wait for the bucket to refill
+    public void exhausted() {
+        perMinute.drain();
+    }
+
+    // Return milliseconds the per-minute quota takes to earn one request,
+    // the least time between polls that don't use up the quota
+    public long getRefillMillis() {
+        return refillMillis;
+    }
+
+    // Return number of requests waiting for quota
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    // Return a one-line report of requests sent and time spent waiting
+    public String report() {
+        long count = sent.get();
+        long averageMillis = count == 0 ? 0
+                : waitedNanos.get() / count / NANOS_PER_MILLI;
+        return "API requests: " + count + " sent, " + merged.get()
+                + " merged with requests in flight; queue depth now "
+                + getQueueDepth() + " (max " + maxDepth.get() + ");"
+                + " quota wait average " + averageMillis + " ms, max "
+                + maxWaitNanos.get() / NANOS_PER_MILLI + " ms";
+    }
+
+    // Dispatcher loop: take the highest priority request, wait until this
+    // minute's quota has a token, take one of the day's, then send it
+    private void dispatch() {
+        try {
+            while (true) {
+                Pending pending = queue.take();
+
+                // Wait for this minute's quota
+                long wait;
+                while ((wait = perMinute.nanosUntilAvailable()) > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+
+                // Given up on by the worker that queued it
+                if (pending.answer.isDone())
+                    continue;
+
+                // Fail the request once the day's quota is spent, instead of
+                // holding up every request behind it until tomorrow
+                if (!perDay.tryTake()) {
+                    pending.answer.completeExceptionally(new ScanException(
+                            "Daily API quota of " + dayLimit + " requests"
+                                    + " used up; more are allowed from"
+                                    + " 00:00 UTC"));
+                    continue;
+                }
+                perMinute.take();
+
+                // Record time the request waited in the queue
+                long waited = System.nanoTime() - pending.queuedAt;
+                waitedNanos.addAndGet(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                sent.incrementAndGet();
+
+                // Send without holding up the next request
+                senders.execute(() -> {
+                    try {
+                        pending.answer.complete(pending.call.call());
+                    }
+                    catch (Exception e) {
+                        pending.answer.completeExceptionally(e);
+                    }
+                });
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Return result of 'answer' for 'phase', rethrowing what the request
+    // threw; once the wait runs past the limits of 'waiter', give up on the
+    // request (so a queued one isn't sent, and workers merged with it give
+    // up too) and throw ScanTimeoutException
+    private static Object await(CompletableFuture<Object> answer,
+                                String phase, Waiter waiter) {
+        try {
+            return answer.get(waiter.remainingMillis(),
+                              TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            ScanTimeoutException timeout = new ScanTimeoutException(
+                    phase, waiter.isPastDeadline());
+            answer.completeExceptionally(timeout);
+            throw timeout;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScanTimeoutException(phase, true);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ScanException("API request failed", e.getCause());
+        }
+    }
+
+    // Request waiting for quota; ordered by priority, then arrival
+    private static class Pending implements Comparable<Pending> {
+        private final int priority;
+        private final long sequence;
+        private final Callable<Object> call;
+        private final CompletableFuture<Object> answer;
+        private final long queuedAt;
+
+        private Pending(int priority, long sequence, Callable<Object> call,
+                        CompletableFuture<Object> answer) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.call = call;
+            this.answer = answer;
+            this.queuedAt = System.nanoTime();
+        }
+
+        public int compareTo(Pending that) {
+            if (priority != that.priority)
+                return Integer.compare(priority, that.priority);
+            return Long.compare(sequence, that.sequence);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Stand-in for the VirusTotal website, for --replay: serves report pages
+ * recorded with --record (one <sha256>.html fixture per file, shadow roots
+ * included as declarative shadow DOM) from an embedded HTTP server on
+ * 127.0.0.1, so the browser backend can be profiled and regression-tested
+ * without the network. Hashes without a fixture get VirusTotal's "not
+ * found" view, and the upload page is a minimal copy of the real one that
+ * hashes the chosen file in the page and opens its report. Every response
+ * can be held back by a fixed delay, and reports can be made to appear only
+ * some time after their page loaded, like a scan that is still running.
+ */
+
+// Import libraries
+// io, nio - fixture files
+// net - embedded HTTP server
+// concurrent - one thread per request, so delays overlap
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+
+
+public class ReplayServer {
+
+    // Constants
+    public static final String FIXTURE_SUFFIX = ".html";
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final String VIEW_CONTAINER = "id=\"view-container\"";
+    private static final String HIDDEN_VIEW_CONTAINER
+            = "id=\"view-container-replay\"";
+    private static final String BODY_END = "</body>";
+
+    // VirusTotal's view for a hash it doesn't know
+    private static final String NOT_FOUND_PAGE = "<!DOCTYPE html>\n<html>"
+            + "<head><title>VirusTotal replay</title></head><body>"
+            + "<vt-ui-shell><div id=\"view-container\">"
+            + "<search-view></search-view>"
+            + "</div></vt-ui-shell></body></html>\n";
+
+    // Just enough of the upload page for VT.uploadFile: the file selector
+    // and the 'Confirm upload' button, in the same shadow roots as on the
+    // real page; confirming opens the report of the file's SHA-256 hash
+    private static final String UPLOAD_PAGE = "<!DOCTYPE html>\n<html>"
+            + "<head><title>VirusTotal replay</title></head><body>"
+            + "<vt-ui-shell><template shadowrootmode=\"open\"><slot></slot>"
+            + "<vt-ui-dialog id=\"uploadModal\">"
+            + "<div class=\"content upload-dialog\">"
+            + "<vt-ui-main-upload-form id=\"uploadMoldaForm\">"
+            + "<template shadowrootmode=\"open\"><div class=\"wrapper\">"
+            + "<vt-ui-button id=\"confirmUpload\">Confirm upload</vt-ui-button>"
+            + "</div></template></vt-ui-main-upload-form>"
+            + "</div></vt-ui-dialog></template>"
+            + "<div id=\"view-container\"><home-view>"
+            + "<template shadowrootmode=\"open\"><div class=\"wrapper\">"
+            + "<div class=\"omnibar\"><vt-ui-selector id=\"section\">"
+            + "<div class=\"vt-selected\">"
+            + "<vt-ui-main-upload-form id=\"uploadForm\">"
+            + "<template shadowrootmode=\"open\"><div class=\"wrapper\">"
+            + "<input type=\"file\" id=\"fileSelector\">"
+            + "</div></template></vt-ui-main-upload-form>"
+            + "</div></vt-ui-selector></div></div></template>"
+            + "</home-view></div></vt-ui-shell>"
+            + "<script>"
+            + "var input = document.querySelector('vt-ui-shell"
+            + " div#view-container home-view').shadowRoot"
+            + ".querySelector('vt-ui-main-upload-form#uploadForm').shadowRoot"
+            + ".querySelector('input#fileSelector');"
+            + "document.querySelector('vt-ui-shell').shadowRoot"
+            + ".querySelector('vt-ui-main-upload-form#uploadMoldaForm')"
+            + ".shadowRoot.querySelector('vt-ui-button#confirmUpload')"
+            + ".addEventListener('click', function () {"
+            + "  input.files[0].arrayBuffer().then(function (bytes) {"
+            + "    return crypto.subtle.digest('SHA-256', bytes);"
+            + "  }).then(function (digest) {"
+            + "    location.href = '" + VT.REPORT_PATH + "'"
+            + "      + Array.from(new Uint8Array(digest)).map(function (b) {"
+            + "          return b.toString(16).padStart(2, '0');"
+            + "        }).join('');"
+            + "  });"
+            + "});"
+            + "</script></body></html>\n";
+
+    // Instance variables
+    private final Path fixtures;            // Directory of <sha256>.html
+    private final long delayMillis;         // Added to every response
+    private final long renderDelayMillis;   // Until a report shows up
+
+    // Specified constructor serves reports recorded in 'fixtures', holds
+    // every response back 'delayMillis' and shows each report
+    // 'renderDelayMillis' after its page loaded
+    public ReplayServer(Path fixtures, long delayMillis,
+                        long renderDelayMillis) {
+        this.fixtures = fixtures;
+        this.delayMillis = delayMillis;
+        this.renderDelayMillis = renderDelayMillis;
+    }
+
+    // Return fixture file of the report for 'sha256' in directory
+    // 'fixtures'
+    public static Path fixture(Path fixtures, String sha256) {
+        return fixtures.resolve(sha256 + FIXTURE_SUFFIX);
+    }
+
+    // Serve pages on 127.0.0.1:'port' (0 picks a free port) on background
+    // threads until the program ends and return the port
+    public int start(int port) throws IOException {
+        if (!Files.isDirectory(fixtures))
+            throw new NotDirectoryException(fixtures.toString());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+
+        // One thread per request so delays of different workers overlap
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "vt-replay");
+            thread.setDaemon(true);
+            return thread;
+        }));
+
+        // Started from a daemon thread, whose daemon status the server's
+        // dispatcher thread inherits, so the server doesn't keep the
+        // program running (e.g. after the browser failed to start)
+        Thread starter = new Thread(server::start, "vt-replay-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return server.getAddress().getPort();
+    }
+
+    // Answer one request with its report, the "not found" view or the
+    // upload page after the configured delay
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(delayMillis);
+
+            // Pick page
+            String path = exchange.getRequestURI().getPath();
+            String page;
+            if (path.startsWith(VT.REPORT_PATH))
+                page = render(report(path.substring(
+                        VT.REPORT_PATH.length())));
+            else if (path.equals(VT.UPLOAD_PATH))
+                page = UPLOAD_PAGE;
+            else {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            // Send page
+            byte[] body = page.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    // Return recorded report page for 'sha256', or the "not found" view if
+    // there is no fixture for it
+    private String report(String sha256) throws IOException {
+
+        // Only hex hashes, so the path can't leave 'fixtures'
+        if (!sha256.matches("[0-9a-fA-F]+"))
+            return NOT_FOUND_PAGE;
+        Path fixture = fixture(fixtures, sha256.toLowerCase());
+        if (!Files.isRegularFile(fixture))
+            return NOT_FOUND_PAGE;
+        return new String(Files.readAllBytes(fixture), StandardCharsets.UTF_8);
+    }
+
+    // Return 'page' with its view container hidden from VT's scripts until
+    // 'renderDelayMillis' after it loaded, if there is a render delay
+    private String render(String page) {
+        int bodyEnd = page.lastIndexOf(BODY_END);
+        if (renderDelayMillis <= 0 || bodyEnd < 0)
+            return page;
+        String reveal = "<script>setTimeout(function () {"
+                + " document.getElementById('view-container-replay').id"
+                + " = 'view-container'; }, " + renderDelayMillis + ");"
+                + "</script>";
+        return page.substring(0, bodyEnd)
+                       .replace(VIEW_CONTAINER, HIDDEN_VIEW_CONTAINER)
+                + reveal + page.substring(bodyEnd);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * On-disk cache of <engine, result> pairs keyed by file SHA-256 hash, so
+ * repeat scans of unchanged files are answered without starting a browser.
+ * Each entry is one text file holding the time it was scanned followed by
+ * one "engine<TAB>result" line per engine. Entries older than the maximum
+ * age are ignored, and the least recently used entries are evicted once
+ * the cache holds more than its maximum number of entries. The entries are
+ * counted once, when the first result is stored, and the count is kept up
+ * to date as entries are added, so the directory is only listed and its
+ * entries' ages read again once the count goes over the maximum; eviction
+ * then makes room for a tenth of the maximum before the next one.
+ */
+
+// Import libraries
+// io, nio - cache entry files
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class ResultCache {
+
+    // Constants
+    public static final long DEFAULT_MAX_AGE_SECONDS = 24 * 60 * 60;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final String ENTRY_SUFFIX = ".txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String SEPARATOR = "\t";
+
+    // Instance variables
+    private final Path directory;       // Directory holding entry files
+    private final long maxAgeMillis;    // Entries older than this are stale
+    private final int maxEntries;       // Entries kept before LRU eviction
+    private int entries;                // Entries in 'directory', or -1
+
+    // Default constructor uses ~/.vt/cache with default limits
+    public ResultCache() {
+        this(defaultDirectory(), DEFAULT_MAX_AGE_SECONDS, DEFAULT_MAX_ENTRIES);
+    }
+
+    // Specified constructor keeps entries in 'directory' for at most
+    // 'maxAgeSeconds' and at most 'maxEntries' of them
+    public ResultCache(Path directory, long maxAgeSeconds, int maxEntries) {
+        this.directory = directory;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.maxEntries = maxEntries;
+        entries = -1;
+    }
+
+    // Return ~/.vt/cache
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".vt", "cache");
+    }
+
+    // Return cached <engine, result> pairs for 'sha256', or null if there
+    // is no entry younger than the maximum age
+    public ST<String, String> get(String sha256) {
+
+        // No hash, or cache refresh forced with a maximum age of 0
+        if (sha256.isEmpty() || maxAgeMillis <= 0)
+            return null;
+
+        Path entry = entryPath(sha256);
+        try (BufferedReader reader = Files.newBufferedReader(
+                entry, StandardCharsets.UTF_8)) {
+
+            // First line is the time the file was scanned
+            long scannedAt = Long.parseLong(reader.readLine());
+            if (System.currentTimeMillis() - scannedAt > maxAgeMillis)
+                return null;
+
+            // Remaining lines are <engine, result> pairs
+            ST<String, String> rawScanResults = new ST<String, String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] pair = line.split(SEPARATOR, 2);
+                if (pair.length == 2)
+                    rawScanResults.put(pair[0], pair[1]);
+            }
+
+            // Mark entry as recently used for LRU eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(
+                    System.currentTimeMillis()));
+            return rawScanResults;
+        }
+
+        // Missing or unreadable entry is a cache miss
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Store 'rawScanResults' <engine, result> pairs for 'sha256' and evict
+    // least recently used entries beyond the maximum number of entries;
+    // failures are ignored since the cache is only an optimization
+    public synchronized void put(String sha256,
+                                 ST<String, String> rawScanResults) {
+
+        // Nothing worth caching
+        if (sha256.isEmpty() || rawScanResults.isEmpty())
+            return;
+
+        try {
+            Files.createDirectories(directory);
+            if (entries < 0)
+                entries = count();
+            Path entry = entryPath(sha256);
+            boolean added = !Files.exists(entry);
+
+            // Write to a temporary file and move it into place so readers
+            // never see a half-written entry
+            Path temp = directory.resolve(sha256 + TEMP_SUFFIX);
+            try (BufferedWriter writer = Files.newBufferedWriter(
+                    temp, StandardCharsets.UTF_8)) {
+                writer.write(Long.toString(System.currentTimeMillis()));
+                writer.newLine();
+                for (String engine : rawScanResults.keys()) {
+                    writer.write(engine + SEPARATOR
+                                         + rawScanResults.get(engine));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+
+            if (added)
+                entries++;
+            if (entries > maxEntries)
+                evict();
+        }
+        catch (IOException e) {
+            // Leave the cache as it is
+        }
+    }
+
+    // Return number of entry files in the cache directory
+    private int count() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(
+                directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : dir)
+                count++;
+        }
+        return count;
+    }
+
+    // Delete least recently used entries until a tenth of 'maxEntries' is
+    // free, and count the entries left
+    private void evict() throws IOException {
+
+        // Collect entry files, including those other runs added
+        List<Path> found = new ArrayList<Path>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(
+                directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : dir)
+                found.add(entry);
+        }
+        int keep = maxEntries - maxEntries / 10;
+        if (found.size() <= keep) {
+            entries = found.size();
+            return;
+        }
+
+        // Sort least recently used first
+        ST<String, Path> byLastUse = new ST<String, Path>();
+        for (Path entry : found) {
+            try {
+                long lastUse = Files.getLastModifiedTime(entry).toMillis();
+                byLastUse.put(String.format("%020d", lastUse)
+                                      + entry.getFileName(), entry);
+            }
+            catch (NoSuchFileException e) {
+                // Already gone
+            }
+        }
+
+        // Delete oldest entries
+        int excess = byLastUse.size() - keep;
+        for (String key : byLastUse.keys()) {
+            if (excess <= 0)
+                break;
+            Files.deleteIfExists(byLastUse.get(key));
+            excess--;
+        }
+        entries = Math.min(keep, byLastUse.size());
+    }
+
+    // Return path of entry file for 'sha256'
+    private Path entryPath(String sha256) {
+        return directory.resolve(sha256 + ENTRY_SUFFIX);
+    }
+}
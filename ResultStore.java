@@ -0,0 +1,218 @@
+/*
+ * Compact, columnar record of every file a batch scanned, so a batch of a
+ * million files can be kept and summed up without a ScanResult and two
+ * Strings per engine scan. Engine names and result labels are interned into
+ * dictionaries; each engine scan is one int (engine id in the low
+ * ENGINE_BITS bits, result id above), appended to one shared column, and
+ * each file is a range of that column plus its packed SHA-256 hash. The
+ * engine scan column can live off the Java heap in a direct ByteBuffer.
+ */
+
+// Import libraries
+// nio - off-heap engine scan column
+// util - dictionaries
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class ResultStore {
+
+    // Constants
+    private static final int ENGINE_BITS = 10;
+    private static final int MAX_ENGINES = 1 << ENGINE_BITS;
+    private static final int MAX_RESULTS = 1 << (31 - ENGINE_BITS);
+    private static final int ENGINE_MASK = MAX_ENGINES - 1;
+    private static final int HASH_LONGS = 4;            // 256 bits
+    private static final int HASH_HEX_LEN = 64;
+    private static final int INITIAL_FILES = 1024;
+    private static final int INITIAL_SCANS = 64 * 1024;
+
+    // Instance variables
+    private final boolean offHeap;                  // Scans in direct memory
+    private final Map<String, Integer> engineIds;   // Engine name -> id
+    private final List<String> engines;             // Id -> engine name
+    private final Map<String, Integer> resultIds;   // Result label -> id
+    private final List<String> results;             // Id -> result label
+    private final BitSet maliciousResults;          // Ids that flag a file
+    private final List<String> files;               // Absolute file paths
+    private final BitSet unhashed;                  // Files without a hash
+    private IntBuffer scans;        // Engine scans of all files, packed
+    private int[] offsets;          // First scan of each file, then the end
+    private long[] hashes;          // HASH_LONGS per file
+
+    // Specified constructor starts an empty store, keeping engine scans in
+    // direct (off-heap) memory if 'offHeap'
+    public ResultStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        engineIds = new HashMap<String, Integer>();
+        engines = new ArrayList<String>();
+        resultIds = new HashMap<String, Integer>();
+        results = new ArrayList<String>();
+        maliciousResults = new BitSet();
+        files = new ArrayList<String>();
+        unhashed = new BitSet();
+        scans = allocate(INITIAL_SCANS);
+        offsets = new int[INITIAL_FILES + 1];
+        hashes = new long[INITIAL_FILES * HASH_LONGS];
+    }
+
+    // Add <engine, result> pairs 'rawScanResults' of file at 'absFilePath'
+    // with 'sha256' hash (or "" if unknown) and return the file's index
+    public synchronized int add(String absFilePath, String sha256,
+                                ST<String, String> rawScanResults) {
+        int file = files.size();
+
+        // Make room for one more file and its engine scans
+        if (file + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            hashes = Arrays.copyOf(hashes, (offsets.length - 1) * HASH_LONGS);
+        }
+        int start = offsets[file];
+        if (scans.capacity() - start < rawScanResults.size())
+            grow(start + rawScanResults.size());
+
+        // One int per engine scan
+        int end = start;
+        for (String engine : rawScanResults.keys())
+            scans.put(end++, intern(engine, engineIds, engines, MAX_ENGINES)
+                    | intern(rawScanResults.get(engine), resultIds, results,
+                             MAX_RESULTS) << ENGINE_BITS);
+
+        files.add(absFilePath);
+        putHash(file, sha256);
+        offsets[file + 1] = end;
+        return file;
+    }
+
+    // Return number of files
+    public synchronized int size() {
+        return files.size();
+    }
+
+    // Return absolute path of file 'file'
+    public synchronized String getFile(int file) {
+        return files.get(file);
+    }
+
+    // Return SHA-256 hash of file 'file', or "" if it had none
+    public synchronized String getSha256(int file) {
+        if (unhashed.get(file))
+            return "";
+        byte[] bytes = new byte[HASH_LONGS * Long.BYTES];
+        ByteBuffer.wrap(bytes).asLongBuffer()
+                  .put(hashes, file * HASH_LONGS, HASH_LONGS);
+        return FileHash.toHex(bytes);
+    }
+
+    // Return <engine, result> pairs of file 'file'
+    public synchronized ST<String, String> get(int file) {
+        ST<String, String> rawScanResults = new ST<String, String>();
+        for (int i = offsets[file]; i < offsets[file + 1]; i++) {
+            int scan = scans.get(i);
+            rawScanResults.put(engines.get(scan & ENGINE_MASK),
+                               results.get(scan >>> ENGINE_BITS));
+        }
+        return rawScanResults;
+    }
+
+    // Return number of engines that flagged file 'file'
+    public synchronized int countDetected(int file) {
+        int detected = 0;
+        for (int i = offsets[file]; i < offsets[file + 1]; i++)
+            if (maliciousResults.get(scans.get(i) >>> ENGINE_BITS))
+                detected++;
+        return detected;
+    }
+
+    // Return number of files at least 'minDetected' engines flagged
+    public synchronized int countFlagged(int minDetected) {
+        int flagged = 0;
+        for (int file = 0; file < files.size(); file++)
+            if (countDetected(file) >= minDetected)
+                flagged++;
+        return flagged;
+    }
+
+    // Return number of files each engine flagged, indexed by engine id
+    public synchronized int[] detectionsByEngine() {
+        int[] detections = new int[engines.size()];
+        for (int i = 0; i < offsets[files.size()]; i++) {
+            int scan = scans.get(i);
+            if (maliciousResults.get(scan >>> ENGINE_BITS))
+                detections[scan & ENGINE_MASK]++;
+        }
+        return detections;
+    }
+
+    // Return number of distinct engines
+    public synchronized int engineCount() {
+        return engines.size();
+    }
+
+    // Return name of engine with id 'engine'
+    public synchronized String getEngine(int engine) {
+        return engines.get(engine);
+    }
+
+    // Return id of 'str' in dictionary 'ids' / 'names', adding it if new;
+    // at most 'max' ids
+    private int intern(String str, Map<String, Integer> ids,
+                       List<String> names, int max) {
+        Integer id = ids.get(str);
+        if (id != null)
+            return id;
+        if (names.size() >= max)
+            throw new IllegalStateException("More than " + max
+                                                    + " distinct values");
+        id = names.size();
+        ids.put(str, id);
+        names.add(str);
+
+        // Result labels are classified once, the way ScanResult does
+        if (names == results && new ScanResult("", str).isMalicious())
+            maliciousResults.set(id);
+        return id;
+    }
+
+    // Store 'sha256' (hex) as HASH_LONGS longs of file 'file'
+    private void putHash(int file, String sha256) {
+        try {
+            if (sha256.length() == HASH_HEX_LEN) {
+                for (int i = 0; i < HASH_LONGS; i++)
+                    hashes[file * HASH_LONGS + i] = Long.parseUnsignedLong(
+                            sha256.substring(i * 16, (i + 1) * 16), 16);
+                return;
+            }
+        }
+        catch (NumberFormatException e) {
+            // Not a hex hash; fall through
+        }
+        unhashed.set(file);
+    }
+
+    // Grow engine scan column to hold at least 'needed' scans
+    private void grow(int needed) {
+        IntBuffer grown = allocate(Math.max(needed, scans.capacity() * 2));
+        IntBuffer old = scans.duplicate();
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        scans = grown;
+    }
+
+    // Return column of 'capacity' ints, on or off the heap
+    private IntBuffer allocate(int capacity) {
+        if (!offHeap)
+            return IntBuffer.allocate(capacity);
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                         .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
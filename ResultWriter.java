@@ -0,0 +1,165 @@
+/*
+ * Writes each scanned file's engine scans to standard output in the format
+ * chosen with --format: the colored table (ScanResult.multiPrint), one JSON
+ * array of file objects (json), one JSON object per line (jsonl), or one
+ * CSV row per engine scan (csv). Machine-readable formats go through one
+ * buffered writer that is flushed once per file instead of once per
+ * character.
+ */
+
+// Import libraries
+// io - buffered standard output
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+
+public class ResultWriter {
+
+    // Constants
+    public static final String TABLE = "table";
+    public static final String JSON = "json";
+    public static final String JSONL = "jsonl";
+    public static final String CSV = "csv";
+    private static final String[] FORMATS = new String[] {
+            TABLE, JSON, JSONL, CSV
+    };
+    private static final String CSV_HEADER = "file,sha256,engine,result,error";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TABLE_COLUMNS = 2;
+
+    // Instance variables
+    private final String format;    // One of FORMATS
+    private final Writer out;       // Buffered standard output
+    private int files;              // Files written so far
+
+    // Specified constructor writes 'format' to standard output
+    public ResultWriter(String format) {
+        this(format, new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out),
+                StandardCharsets.UTF_8));
+    }
+
+    // Specified constructor writes 'format' to 'out'
+    public ResultWriter(String format, Writer out) {
+        this.format = format.toLowerCase();
+        this.out = new BufferedWriter(out, BUFFER_SIZE);
+        files = 0;
+    }
+
+    // Return true if 'format' is one of FORMATS
+    public static boolean isFormat(String format) {
+        for (String known : FORMATS)
+            if (known.equalsIgnoreCase(format))
+                return true;
+        return false;
+    }
+
+    // Return true if results are written as the colored table
+    public boolean isTable() {
+        return format.equals(TABLE);
+    }
+
+    // Write 'scanResults' of file at 'absFilePath' with 'sha256' hash (or ""
+    // if unknown) and flush once
+    public synchronized void write(String absFilePath, String sha256,
+                                   ScanResult[] scanResults) {
+
+        // Colored table prints itself
+        if (isTable()) {
+            ScanResult.multiPrint(scanResults, TABLE_COLUMNS);
+            files++;
+            return;
+        }
+
+        try {
+            // Open JSON array / write CSV header before the first file
+            if (files == 0) {
+                if (format.equals(JSON))
+                    out.write("[\n");
+                else if (format.equals(CSV))
+                    out.write(CSV_HEADER + "\n");
+            }
+
+            // One JSON object per file; JSON array elements are comma
+            // separated
+            if (format.equals(JSON) || format.equals(JSONL)) {
+                if (format.equals(JSON) && files > 0)
+                    out.write(",\n");
+                writeJson(absFilePath, sha256, scanResults);
+                if (format.equals(JSONL))
+                    out.write('\n');
+            }
+
+            // One CSV row per engine scan
+            else {
+                for (ScanResult scanResult : scanResults) {
+                    out.write(csv(absFilePath));
+                    out.write(',');
+                    out.write(sha256);
+                    out.write(',');
+                    out.write(csv(scanResult.getEngine()));
+                    out.write(',');
+                    out.write(csv(scanResult.getResult()));
+                    out.write(',');
+                    out.write(Boolean.toString(scanResult.hasError()));
+                    out.write('\n');
+                }
+            }
+
+            files++;
+            out.flush();
+        }
+        catch (IOException e) {
+            // Standard output closed (e.g. broken pipe); nothing to report to
+        }
+    }
+
+    // Finish output (close JSON array) and flush
+    public synchronized void close() {
+        try {
+            if (format.equals(JSON))
+                out.write(files == 0 ? "[]\n" : "\n]\n");
+            out.flush();
+        }
+        catch (IOException e) {
+            // Standard output closed (e.g. broken pipe); nothing to report to
+        }
+    }
+
+    // Write one JSON object for 'scanResults' of file at 'absFilePath' with
+    // 'sha256' hash
+    private void writeJson(String absFilePath, String sha256,
+                           ScanResult[] scanResults) throws IOException {
+        out.write("{\"file\":");
+        out.write(Json.quote(absFilePath));
+        out.write(",\"sha256\":");
+        out.write(Json.quote(sha256));
+        out.write(",\"results\":[");
+        for (int i = 0; i < scanResults.length; i++) {
+            if (i > 0)
+                out.write(',');
+            out.write("{\"engine\":");
+            out.write(Json.quote(scanResults[i].getEngine()));
+            out.write(",\"result\":");
+            out.write(Json.quote(scanResults[i].getResult()));
+            out.write(",\"error\":");
+            out.write(Boolean.toString(scanResults[i].hasError()));
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    // Return 'str' as a CSV field, quoted only if needed
+    private static String csv(String str) {
+        if (str.indexOf(',') < 0 && str.indexOf('"') < 0
+                && str.indexOf('\n') < 0 && str.indexOf('\r') < 0)
+            return str;
+        return "\"" + str.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Something that can scan a file across VirusTotal's antivirus engines:
+ * the headless browser driving the VirusTotal website (BrowserBackend) or
+ * the VirusTotal REST API (ApiBackend). Each backend is used by one thread
+ * at a time; ScanScheduler gives every worker its own.
+ */
+
+// Import libraries
+// function - hand streamed results to caller
+
+import java.util.function.Consumer;
+
+
+public interface ScanBackend {
+
+    // Scan file at 'absFilePath' with 'sha256' hash (or "" if unknown), wait
+    // until all engine scans are complete, or until every engine of
+    // 'engines' has a result, and return <engine, result> pairs, which
+    // VT.selectResults turns into ScanResult[]; throw ScanException if the
+    // file can't be scanned
+    ST<String, String> scan(String absFilePath, String sha256,
+                            EngineSelection engines);
+
+    // Scan file at 'absFilePath' with 'sha256' hash (or "" if unknown),
+    // handing each engine scan to 'onResult' as soon as the engine finishes;
+    // stop once all engine scans are complete, once every engine of
+    // 'engines' has a result or once 'stopAfter' engines flagged the file
+    // (if 'stopAfter' > 0) and return the <engine, result> pairs seen so
+    // far; throw ScanException if the file can't be scanned
+    ST<String, String> stream(String absFilePath, String sha256, int stopAfter,
+                              EngineSelection engines,
+                              Consumer<ScanResult> onResult);
+
+    // Release the backend (end browser, close connections)
+    void close();
+}
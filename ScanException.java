@@ -0,0 +1,21 @@
+/*
+ * Thrown by a ScanBackend when a file can't be scanned, e.g. VirusTotal
+ * rejected the request or couldn't be reached.
+ */
+
+public class ScanException extends RuntimeException {
+
+    // Constants
+    private static final long serialVersionUID = 1L;
+
+    // Specified constructor with 'message' describing what went wrong
+    public ScanException(String message) {
+        super(message);
+    }
+
+    // Specified constructor with 'message' describing what went wrong
+    // because of 'cause'
+    public ScanException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
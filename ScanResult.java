@@ -1,7 +1,8 @@
 /*
  * Object representing a single engine scan with engine name and scan result.
  * public static multiPrint methods is used in VT.java to print engine scans in
- * tabular format.
+ * tabular format; each table is rendered into one StringBuilder with
+ * precomputed color escape sequences and printed with a single write.
  */
 
 // Import libraries
@@ -14,12 +15,15 @@ import static org.fusesource.jansi.Ansi.Color.GREEN;
 import static org.fusesource.jansi.Ansi.Color.RED;
 import static org.fusesource.jansi.Ansi.Color.WHITE;
 import static org.fusesource.jansi.Ansi.Color.YELLOW;
+import static org.fusesource.jansi.Ansi.ansi;
 
 
 public class ScanResult {
 
     // Constants
     private static final int MAX_ENGINE_LEN = 20;
+    private static final int MAX_RESULT_LEN = 10;
+    private static final int RESULT_CELL_LEN = 11;
     private static final int TABLE_ROW_LEN = 36;
     private static final Ansi.Color NORMAL_HIGHLIGHT = BLACK;
     private static final Ansi.Color NORMAL_TEXT = GREEN;
@@ -32,6 +36,23 @@ public class ScanResult {
             "Unable to process file type", ""
     };
     private static final String UNDETECTED = "Undetected";
+    private static final String CELL_SEPARATOR = "\t|\t";
+    private static final String NEWLINE = System.lineSeparator();
+    private static final String BAR = "-".repeat(TABLE_ROW_LEN * 2);
+
+    // Color escape sequences, built once instead of once per cell
+    private static final String NORMAL_STYLE
+            = ansi().bg(NORMAL_HIGHLIGHT).fg(NORMAL_TEXT).toString();
+    private static final String ERROR_STYLE
+            = ansi().bg(ERROR_HIGHLIGHT).fg(ERROR_TEXT).toString();
+    private static final String BAD_STYLE
+            = ansi().bg(BAD_HIGHLIGHT).fg(BAD_TEXT).toString();
+    private static final String RESET_STYLE = ansi().reset().toString();
+
+    // Room for one engine scan: colors, engine name, result, separator
+    private static final int ROW_CAPACITY = NORMAL_STYLE.length()
+            + MAX_ENGINE_LEN + RESET_STYLE.length() + RESULT_CELL_LEN
+            + CELL_SEPARATOR.length() + NEWLINE.length();
 
     // Instance variables
     private String engine;  // Engine name
@@ -61,57 +82,88 @@ public class ScanResult {
     }
 
     // Return engine name
-    private String getEngine() {
+    public String getEngine() {
         return engine;
     }
 
     // Return whether engine had error
-    private boolean hasError() {
+    public boolean hasError() {
         return error;
     }
 
     // Return engine scan result
-    private String getResult() {
+    public String getResult() {
         return result;
     }
 
-    // Print colored coded (truncated or padded) engine name based on 'scanResult'
-    private static void colorPrintEngine(ScanResult scanResult) {
+    // Return whether engine flagged the file
+    public boolean isMalicious() {
+        return !error && !result.equalsIgnoreCase(UNDETECTED);
+    }
 
-        // Engine name
-        String engine = "";
+    // Append color coded engine name of 'scanResult' (truncated or padded
+    // to MAX_ENGINE_LEN) to 'table'
+    private static void appendEngine(StringBuilder table,
+                                     ScanResult scanResult) {
 
-        // Truncate engine name
-        try {
-            engine = scanResult.getEngine().substring(0, MAX_ENGINE_LEN);
-        }
+        // If result is "Undetected" -> engine name NORMAL
+        if (scanResult.getResult().equalsIgnoreCase(UNDETECTED))
+            table.append(NORMAL_STYLE);
 
-        // Pad engine name with spaces
-        catch (IndexOutOfBoundsException e) {
-            engine = scanResult.getEngine();
-            for (int i = engine.length(); i < MAX_ENGINE_LEN; i++)
-                engine += " ";
-        }
+        // If scan had error -> engine name ERROR
+        else if (scanResult.hasError())
+            table.append(ERROR_STYLE);
 
-        // If result is "Undetected" -> print engine name NORMAL
-        if (scanResult.getResult().equalsIgnoreCase(UNDETECTED)) {
-            VT.colorPrint(false, NORMAL_HIGHLIGHT, NORMAL_TEXT, engine);
-        }
+        // If result is malicious -> engine name BAD
+        else
+            table.append(BAD_STYLE);
 
-        // If scan had error -> print engine name ERROR
-        else if (scanResult.hasError()) {
-            VT.colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, engine);
-        }
+        appendPadded(table, scanResult.getEngine(), MAX_ENGINE_LEN,
+                     MAX_ENGINE_LEN);
+        table.append(RESET_STYLE);
+    }
 
-        // If result is malicious -> print engine name BAD
-        else {
-            VT.colorPrint(false, BAD_HIGHLIGHT, BAD_TEXT, engine);
-        }
+    // Append engine scan result of 'scanResult' (truncated to
+    // MAX_RESULT_LEN, padded to RESULT_CELL_LEN) to 'table'
+    private static void appendResult(StringBuilder table,
+                                     ScanResult scanResult) {
+        appendPadded(table, scanResult.getResult(), MAX_RESULT_LEN,
+                     RESULT_CELL_LEN);
+    }
+
+    // Append first 'maxLen' characters of 'str' to 'table', padded with
+    // spaces to 'width'
+    private static void appendPadded(StringBuilder table, String str,
+                                     int maxLen, int width) {
+        int len = Math.min(str.length(), maxLen);
+        table.append(str, 0, len);
+        for (int i = len; i < width; i++)
+            table.append(' ');
     }
 
-    // Print out 'scanResults' in tabular format with 'column' columns
+    // Append 'width' long bar and a line break to 'table'
+    private static void appendBar(StringBuilder table, int width) {
+        for (int i = 0; i < width; i += BAR.length())
+            table.append(BAR, 0, Math.min(BAR.length(), width - i));
+        table.append(NEWLINE);
+    }
+
+    // Print out one engine scan as a single row, for results streamed in as
+    // engines finish
+    public static void rowPrint(ScanResult scanResult) {
+        StringBuilder row = new StringBuilder(ROW_CAPACITY);
+
+        // Color coded engine name and result
+        appendEngine(row, scanResult);
+        appendResult(row, scanResult);
+        row.append(NEWLINE);
+
+        StdOut.print(row);
+    }
+
+    // Print out 'scanResults' in tabular format with 'column' columns; the
+    // whole table is rendered into one StringBuilder and printed at once
     public static void multiPrint(ScanResult[] scanResults, int column) {
-        StdOut.println();
 
         // Determine width of table
         int tableWidth = TABLE_ROW_LEN * column;
@@ -120,10 +172,15 @@ public class ScanResult {
         if (scanResults.length == 1)
             tableWidth = TABLE_ROW_LEN;
 
+        // Size table up front so it's never copied while growing
+        int rows = (scanResults.length + column - 1) / column;
+        StringBuilder table = new StringBuilder(
+                scanResults.length * ROW_CAPACITY
+                        + (rows + 1) * (tableWidth + 2 * NEWLINE.length()));
+        table.append(NEWLINE);
+
         // Add upper bar to table
-        for (int i = 0; i < tableWidth; i++)
-            StdOut.print('-');
-        StdOut.println();
+        appendBar(table, tableWidth);
 
         // Add engine-result content
         int nextLineCount = 1;      // Determine when to print to next row
@@ -132,32 +189,30 @@ public class ScanResult {
         // Iterate through given engine scans
         for (ScanResult scanResult : scanResults) {
 
-            // Print color coded
-            colorPrintEngine(scanResult);
-
-            StdOut.printf("%-11.10s", scanResult.getResult());
+            // Color coded
+            appendEngine(table, scanResult);
+            appendResult(table, scanResult);
 
-            // If time to print to next line or if user selected engine was found or
-            // if printing the last engine
+            // If time to go to next line or if user selected engine was found
+            // or if adding the last engine
             if (nextLineCount == column || scanResults.length == 1
                     || engineIndex == scanResults.length - 1) {
 
                 // Add lower bar
-                StdOut.println();
-                for (int i = 0; i < tableWidth; i++)
-                    StdOut.print('-');
-                StdOut.println();
+                table.append(NEWLINE);
+                appendBar(table, tableWidth);
                 nextLineCount = 1;
             }
 
-            // Print next engine scan tabbed next to previous engine scan
+            // Put next engine scan tabbed next to previous engine scan
             else {
-                StdOut.print("\t|\t");
+                table.append(CELL_SEPARATOR);
                 nextLineCount++;
             }
 
             engineIndex++;
         }
 
+        StdOut.print(table);
     }
 }
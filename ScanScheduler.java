@@ -0,0 +1,333 @@
+/*
+ * Fixed pool of worker threads, each owning one ScanBackend (e.g. a headless
+ * Chrome WebDriver), that take files from a shared work queue and run the
+ * upload -> wait -> findResult pipeline concurrently. Used in VT.java for
+ * --workers N batches. A file whose scan fails in any way is reported as
+ * failed (and left incomplete in the journal), and the worker goes on with
+ * a new backend; files no worker could start a backend for are reported as
+ * failed too.
+ */
+
+// Import libraries
+// jansi - color printing
+// concurrent - work queue and merged results
+// function - create one backend per worker
+
+import org.fusesource.jansi.Ansi;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.fusesource.jansi.Ansi.Color.BLACK;
+import static org.fusesource.jansi.Ansi.Color.CYAN;
+import static org.fusesource.jansi.Ansi.Color.RED;
+import static org.fusesource.jansi.Ansi.Color.WHITE;
+
+
+public class ScanScheduler {
+
+    // Constants
+    private static final String END_OF_QUEUE = "";  // Tells a worker to stop
+    private static final Ansi.Color ERROR_HIGHLIGHT = WHITE;
+    private static final Ansi.Color ERROR_TEXT = RED;
+    private static final String FAILED = "SCAN FAILED";
+    private static final String TIMED_OUT = "TIMED OUT";
+
+    // Instance variables
+    private final BlockingQueue<String> queue;          // Files to scan
+    private final ResultStore store;                    // Scanned files
+    private final Thread[] workers;                     // One per backend
+    private final Supplier<ScanBackend> backends;       // Creates backends
+    private final Map<String, String> hashes;           // SHA-256 per file
+    private final EngineSelection selectEngines;        // --engine, -e
+    private final ResultCache cache;                    // Stores new scans
+    private final boolean stream;                       // --stream
+    private final int stopAfter;                        // Detections to stop
+    private final ResultWriter writer;                  // --format output
+    private final Journal journal;                      // Batch progress
+    private final Object printLock;                     // Serializes output
+    private final AtomicInteger submitted;              // Files queued so far
+    private int scanned;                                // Files printed
+    private volatile ScanTimeoutException deadlineHit;  // Stopped the batch
+    private volatile boolean detected;                  // 'stopAfter' reached
+    private volatile boolean failed;                    // A file failed
+
+    // Specified constructor starts 'workerCount' workers, each with its own
+    // backend from 'backends', that store new scans in 'cache' and keep only
+    // results of 'selectEngines', each file scanned only until they all
+    // finished; if 'stream', each engine result is printed as it arrives and
+    // a file stops scanning once 'stopAfter' engines flagged it (if
+    // 'stopAfter' > 0); results go to 'writer' and are kept in 'store' (if
+    // not null), and each file's progress is recorded in 'journal' (if not
+    // null)
+    public ScanScheduler(int workerCount, Supplier<ScanBackend> backends,
+                         EngineSelection selectEngines, ResultCache cache,
+                         boolean stream, int stopAfter, ResultWriter writer,
+                         ResultStore store, Journal journal) {
+        this.backends = backends;
+        this.selectEngines = selectEngines;
+        this.writer = writer;
+        this.cache = cache;
+        this.stream = stream;
+        this.stopAfter = stopAfter;
+        this.store = store;
+        this.journal = journal;
+        queue = new LinkedBlockingQueue<String>();
+        hashes = new ConcurrentHashMap<String, String>();
+        printLock = new Object();
+        submitted = new AtomicInteger();
+        scanned = 0;
+
+        // Start workers; each starts its own backend (browser) so startup of
+        // all browsers overlaps
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::work, "vt-worker-" + (i + 1));
+            workers[i].start();
+        }
+    }
+
+    // Queue file at 'absFilePath' with 'sha256' hash (or "" if unknown) to
+    // be scanned by the next free worker
+    public void submit(String absFilePath, String sha256) {
+        submitted.incrementAndGet();
+        hashes.put(absFilePath, sha256);
+        if (journal != null)
+            journal.queued(absFilePath, sha256);
+        queue.add(absFilePath);
+    }
+
+    // Wait until every queued file has been scanned and all workers have
+    // closed their backend; files left because no worker has a backend are
+    // reported as failed
+    public void finish() {
+
+        // One stop signal per worker, queued behind the remaining files
+        for (int i = 0; i < workers.length; i++)
+            queue.add(END_OF_QUEUE);
+
+        // Wait for workers to drain the queue
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        // Files of workers that stopped without a backend
+        String absFilePath;
+        while ((absFilePath = queue.poll()) != null)
+            if (!absFilePath.equals(END_OF_QUEUE) && deadlineHit == null)
+                printSkipped(FAILED, absFilePath,
+                             "No scan backend could be started");
+    }
+
+    // Return whether 'stopAfter' engines flagged any file
+    public boolean isDetected() {
+        return detected;
+    }
+
+    // Return whether any file was skipped because its scan failed
+    public boolean isFailed() {
+        return failed;
+    }
+
+    // Return the timeout that stopped the batch at the global deadline, or
+    // null if the batch ran to completion
+    public ScanTimeoutException getDeadlineHit() {
+        return deadlineHit;
+    }
+
+    // Print <engine, result> pairs 'rawScanResults' of file at
+    // 'absFilePath' with 'sha256' hash that needed no scan ('source', e.g.
+    // "cached") and keep them in the store, like the results the workers
+    // print and keep, so the two don't interleave
+    public void printKnown(String absFilePath, String sha256, String source,
+                           ST<String, String> rawScanResults) {
+        synchronized (printLock) {
+            String message = "\nScanned \"" + absFilePath + "\" (" + source
+                    + "):\n";
+            VT.colorPrint(false, BLACK, CYAN, message);
+            writer.write(absFilePath, sha256,
+                         VT.selectResults(rawScanResults, selectEngines));
+            if (store != null)
+                store.add(absFilePath, sha256, rawScanResults);
+        }
+    }
+
+    // Print one streamed engine result 'scanResult' of file at
+    // 'absFilePath', prefixed with the file name since workers interleave
+    private void rowPrint(String absFilePath, ScanResult scanResult) {
+        if (!writer.isTable()
+                || !selectEngines.contains(scanResult.getEngine()))
+            return;
+        synchronized (printLock) {
+            String prefix = Paths.get(absFilePath).getFileName() + ": ";
+            VT.colorPrint(false, BLACK, CYAN, prefix);
+            ScanResult.rowPrint(scanResult);
+        }
+    }
+
+    // Print that file at 'absFilePath' was skipped for 'reason', headed by
+    // 'kind' (FAILED or TIMED_OUT); remember whether the scan failed
+    private void printSkipped(String kind, String absFilePath,
+                              String reason) {
+        if (kind.equals(FAILED))
+            failed = true;
+        synchronized (printLock) {
+            String message = "\n" + kind + ": \"" + absFilePath
+                    + "\" skipped. " + reason + ".\n";
+            VT.colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        }
+    }
+
+    // Return a new backend from 'backends', or null if it can't be started
+    // (e.g. ChromeDriver is missing); 'failure' gets what went wrong
+    private ScanBackend startBackend(RuntimeException[] failure) {
+        try {
+            return backends.get();
+        }
+        catch (RuntimeException e) {
+            failure[0] = e;
+            return null;
+        }
+    }
+
+    // Close 'backend', which may already be broken
+    private static void closeBackend(ScanBackend backend) {
+        try {
+            backend.close();
+        }
+        catch (RuntimeException e) {
+            // Nothing more to release
+        }
+    }
+
+    // Worker loop: take files from the queue and scan them with this
+    // worker's backend until told to stop
+    private void work() {
+
+        // Start backend (e.g. Chrome WebDriver) owned by this worker
+        RuntimeException[] startFailure = new RuntimeException[1];
+        ScanBackend backend = startBackend(startFailure);
+
+        try {
+            while (true) {
+
+                // Next file to scan
+                String absFilePath = queue.take();
+                if (absFilePath.equals(END_OF_QUEUE))
+                    break;
+
+                // Past the deadline, files queued after it was hit are
+                // dropped too
+                if (deadlineHit != null)
+                    continue;
+
+                // Without a backend, fail this file and leave the rest to
+                // the other workers (or to finish())
+                if (backend == null) {
+                    printSkipped(FAILED, absFilePath,
+                                 "Could not start a scan backend: "
+                                         + startFailure[0]);
+                    break;
+                }
+
+                // Upload file and wait until all engine scans are complete,
+                // printing each engine result as it arrives if streaming
+                String sha256 = hashes.get(absFilePath);
+                if (journal != null)
+                    journal.submitted(absFilePath, sha256);
+                ST<String, String> rawScanResults;
+                long started = System.nanoTime();
+                try {
+                    if (stream)
+                        rawScanResults = backend.stream(
+                                absFilePath, sha256, stopAfter, selectEngines,
+                                scanResult -> rowPrint(absFilePath,
+                                                       scanResult));
+                    else
+                        rawScanResults = backend.scan(absFilePath, sha256,
+                                                      selectEngines);
+                    Metrics.record(Metrics.SCAN, started);
+                }
+
+                // Skip a file that timed out; at the global deadline drop
+                // the files left in the queue, but not the stop signals
+                // other workers wait for, so every worker stops
+                catch (ScanTimeoutException e) {
+                    if (e.isDeadline()) {
+                        deadlineHit = e;
+                        queue.removeIf(file -> !file.equals(END_OF_QUEUE));
+                        break;
+                    }
+                    printSkipped(TIMED_OUT, absFilePath, e.getMessage());
+                    continue;
+                }
+
+                // Skip a file VirusTotal couldn't scan
+                catch (ScanException e) {
+                    printSkipped(FAILED, absFilePath, e.getMessage());
+                    continue;
+                }
+
+                // Skip a file the backend broke on (e.g. the browser died or
+                // the page changed shape) and start a new backend for the
+                // next one
+                catch (RuntimeException e) {
+                    printSkipped(FAILED, absFilePath, e.toString());
+                    closeBackend(backend);
+                    backend = startBackend(startFailure);
+                    continue;
+                }
+
+                // Remember complete results for next time; a scan stopped
+                // after 'stopAfter' detections or once the selected engines
+                // finished is incomplete
+                if (stopAfter > 0
+                        && VT.countDetected(rawScanResults) >= stopAfter)
+                    detected = true;
+                else if (selectEngines.isAll())
+                    cache.put(sha256, rawScanResults);
+
+                // Every engine's results, before they are narrowed to the
+                // selected engines, so a resumed batch can print any of them
+                if (journal != null)
+                    journal.completed(absFilePath, sha256, rawScanResults);
+
+                // Print results of one file at a time so tables from
+                // different workers don't interleave
+                synchronized (printLock) {
+                    scanned++;
+                    String message = "\nScanned \"" + absFilePath + "\" ("
+                            + scanned + "/" + submitted.get() + "):\n";
+                    VT.colorPrint(false, BLACK, CYAN, message);
+                    ScanResult[] scanResults
+                            = VT.selectResults(rawScanResults,
+                                               selectEngines);
+                    if (!stream || !writer.isTable())
+                        writer.write(absFilePath, sha256, scanResults);
+                    if (store != null)
+                        store.add(absFilePath, sha256, rawScanResults);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // End backend
+        finally {
+            if (backend != null)
+                closeBackend(backend);
+        }
+    }
+}
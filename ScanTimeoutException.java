@@ -0,0 +1,33 @@
+/*
+ * Thrown by Waiter when a wait for VirusTotal runs past its per-phase
+ * timeout (--timeout) or past the global deadline of the run (--deadline).
+ */
+
+public class ScanTimeoutException extends ScanException {
+
+    // Constants
+    private static final long serialVersionUID = 1L;
+
+    // Instance variables
+    private final String phase;         // What was being waited for
+    private final boolean deadline;     // Was the global deadline hit
+
+    // Specified constructor for a wait on 'phase' that hit the global
+    // deadline ('deadline') or its per-phase timeout (!'deadline')
+    public ScanTimeoutException(String phase, boolean deadline) {
+        super((deadline ? "Deadline" : "Timeout") + " reached while waiting for "
+                      + phase);
+        this.phase = phase;
+        this.deadline = deadline;
+    }
+
+    // Return what was being waited for
+    public String getPhase() {
+        return phase;
+    }
+
+    // Return whether the global deadline (not a per-phase timeout) was hit
+    public boolean isDeadline() {
+        return deadline;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Token bucket holding up to 'capacity' tokens that refill continuously at
+ * 'capacity' per 'period'. Used by QuotaScheduler to keep VirusTotal API
+ * requests within the per-minute quota.
+ */
+
+// Import libraries
+// time - refill period
+
+import java.time.Duration;
+
+
+public class TokenBucket {
+
+    // Instance variables
+    private final double capacity;          // Most tokens held at once
+    private final double tokensPerNano;     // Refill rate
+    private double tokens;                  // Tokens available now
+    private long refilledAt;                // System.nanoTime() of last refill
+
+    // Specified constructor for a full bucket of 'capacity' tokens that
+    // refills 'capacity' tokens every 'period'
+    public TokenBucket(int capacity, Duration period) {
+        this.capacity = capacity;
+        this.tokensPerNano = capacity / (double) period.toNanos();
+        tokens = capacity;
+        refilledAt = System.nanoTime();
+    }
+
+    // Return nanoseconds until a token is available (0 if one is now)
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        if (tokens >= 1)
+            return 0;
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    // Take one token; call only when nanosUntilAvailable() is 0
+    public synchronized void take() {
+        refill();
+        tokens -= 1;
+    }
+
+    // Empty the bucket, e.g. after the server said the quota is used up
+    public synchronized void drain() {
+        refill();
+        tokens = 0;
+    }
+
+    // Add tokens earned since the last refill
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -4,21 +4,154 @@
  * existing av engine name is specified, display results only for that av scan.
  *
  * ------------------------------------------------------------------------------
- * usage: vt [--help] [--file FILE_PATH] [--engine ENGINE]
+ * usage: vt [--help] [--file FILE_PATH] [--files LIST] [--workers N]
+ *           [--engine ENGINE] [--max-age SECONDS] [--cache-entries N]
+ *           [--timeout SECONDS] [--deadline SECONDS] [--stream]
+ *           [--stop-after-detections K] [--format FORMAT]
+ *           [--backend BACKEND] [--api-key KEY]
+ *           [--api-url URL] [--quota-minute N] [--quota-day N]
+ *           [--daemon] [--socket PATH] [--no-daemon] [--dir PATH]
+ *           [--manifest FILE] [--watch DIR] [--settle SECONDS]
+ *           [--metrics] [--metrics-file FILE] [--metrics-port PORT]
+ *           [--record DIR] [--replay DIR] [--replay-port PORT]
+ *           [--replay-delay MILLIS] [--render-delay MILLIS]
+ *           [--base-url URL] [--summary] [--off-heap]
+ *           [--max-upload MB] [--allowlist FILE] [--denylist FILE]
+ *           [--journal FILE] [--resume JOURNAL] [--recycle-after N]
+ *           [--browser-mb MB] [--lean]
  *
  * Scan your file across multiple antivirus engines
  *
  * arguments:
  *   --help, -h             : display this help menu and exit
  *   --file, -f FILE_PATH   : path of file to send to VirusTotal
- *   --engine, -e ENGINE    : (optional) choose what antivirus engine to
- *                            scan with (default is all available)
+ *   --files, -b LIST       : batch scan with one browser session; LIST is
+ *                            comma separated file paths, a directory, or
+ *                            '-' to read one file path per line from stdin
+ *   --workers, -w N        : (optional) number of browsers scanning batch
+ *                            files at the same time (default is 1)
+ *   --engine, -e ENGINE    : (optional) choose what antivirus engines to
+ *                            scan with, comma separated; a scan ends once
+ *                            they all have a result (default is all
+ *                            available)
+ *   --max-age SECONDS      : (optional) reuse cached results younger than
+ *                            SECONDS; 0 forces a fresh scan (default is
+ *                            86400)
+ *   --cache-entries N      : (optional) most scanned files kept in the
+ *                            result cache (default is 10000)
+ *   --timeout SECONDS      : (optional) longest wait for each step of a scan
+ *                            (default is 600)
+ *   --deadline SECONDS     : (optional) longest the whole run may take
+ *                            (default is no limit)
+ *   --stream               : (optional) print each engine result as soon as
+ *                            the engine finishes
+ *   --stop-after-detections K : (optional) stream, and stop scanning a file
+ *                            once K engines flag it
+ *   --format FORMAT        : (optional) table, json, jsonl or csv; anything
+ *                            but table sends messages to stderr (default is
+ *                            table)
+ *   --backend BACKEND      : (optional) browser (drive the VirusTotal
+ *                            website) or api (VirusTotal REST API, needs an
+ *                            API key) (default is browser)
+ *   --api-key KEY          : (optional) VirusTotal API key for the api
+ *                            backend (default is $VT_API_KEY)
+ *   --api-url URL          : (optional) base URL of the VirusTotal API
+ *                            (default is https://www.virustotal.com)
+ *   --quota-minute N       : (optional) api backend requests allowed per
+ *                            minute (default is 4)
+ *   --quota-day N          : (optional) api backend requests allowed per
+ *                            UTC day by all runs with the key (default is
+ *                            500)
+ *   --daemon               : keep the JVM and --workers warm backends
+ *                            running and scan files sent by other vt
+ *                            invocations over --socket
+ *   --socket PATH          : (optional) Unix domain socket of the daemon
+ *                            (default is ~/.vt/vt.sock)
+ *   --no-daemon            : (optional) scan in this process even if a
+ *                            daemon is running; so do --stream, --record,
+ *                            --replay, --base-url and any option of the
+ *                            backend (--backend, --api-key, --api-url,
+ *                            --quota-minute, --quota-day, --timeout,
+ *                            --deadline, --max-upload, --lean,
+ *                            --recycle-after, --browser-mb, --workers)
+ *   --dir PATH             : batch scan every file under directory PATH,
+ *                            submitting only files that are new or changed
+ *                            since the last --dir run
+ *   --manifest FILE        : (optional) where --dir records the files it
+ *                            scanned (default is one file per directory in
+ *                            ~/.vt/manifests)
+ *   --watch DIR            : scan each file created or modified in DIR (or
+ *                            a folder under it) until stopped with Ctrl-C
+ *   --settle SECONDS       : (optional) how long a watched file must stay
+ *                            unchanged before it is scanned (default is 2)
+ *   --metrics              : (optional) print count, p50, p90, p99 and max
+ *                            latency of each scan phase, and browser
+ *                            memory after each scan, at exit
+ *   --metrics-file FILE    : (optional) write phase latency to FILE in
+ *                            Prometheus text format at exit
+ *   --metrics-port PORT    : (optional) serve phase latency at
+ *                            http://127.0.0.1:PORT/metrics while running
+ *   --record DIR           : (optional) save each finished report page,
+ *                            shadow roots included, to DIR for --replay
+ *   --replay DIR           : serve reports recorded in DIR instead of
+ *                            VirusTotal and scan against them; on its own,
+ *                            serve until stopped with Ctrl-C
+ *   --replay-port PORT     : (optional) port --replay serves on (default is
+ *                            any free port)
+ *   --replay-delay MILLIS  : (optional) hold every replayed page back MILLIS
+ *                            (default is 0)
+ *   --render-delay MILLIS  : (optional) show each replayed report MILLIS
+ *                            after its page loaded (default is 0)
+ *   --base-url URL         : (optional) VirusTotal website the browser uses,
+ *                            e.g. a vt --replay server (default is
+ *                            https://www.virustotal.com)
+ *   --summary              : (optional) after a batch, print how many files
+ *                            were flagged and which engines flagged most
+ *   --off-heap             : (optional) keep a batch's results outside the
+ *                            Java heap
+ *   --max-upload MB        : (optional) never upload files larger than MB;
+ *                            look them up by hash only (default is 650)
+ *   --allowlist FILE       : (optional) report files whose SHA-256 hash is
+ *                            listed in FILE as undetected without scanning
+ *   --denylist FILE        : (optional) report files whose SHA-256 hash is
+ *                            listed in FILE as known bad without scanning
+ *   --journal FILE         : (optional) where a batch records each file's
+ *                            progress and results (default is a new file in
+ *                            ~/.vt/journals, deleted once every file
+ *                            completed)
+ *   --resume JOURNAL       : pick up the batch recorded in JOURNAL, skipping
+ *                            files that completed and haven't changed
+ *                            since; with -b or --dir, reuse its results for
+ *                            those files
+ *   --recycle-after N      : (optional) start each browser again after N
+ *                            scans; 0 never does (default is 100)
+ *   --browser-mb MB        : (optional) start a browser again once its
+ *                            processes use over MB; 0 never does (default
+ *                            is 2048)
+ *   --lean                 : (optional) start browsers without images,
+ *                            fonts, media, trackers and unused features,
+ *                            keeping their disk cache in ~/.vt/chrome-cache
+ *
+ * Exits with status 124 if a wait runs past --timeout or --deadline, with
+ * status 2 if VirusTotal couldn't scan the file, and with status 1 if
+ * --stop-after-detections K was reached for any file or any file was on
+ * --denylist.
  *
  * See https://support.virustotal.com/hc/en-us/articles/115002146809-Contributors
  * to see the full list of antivirus engines
  *
  * example:
  * vt -f /full/path/to/java.exe -e Kaspersky
+ * vt -f /full/path/to/java.exe -e Kaspersky,ESET-NOD32,Microsoft
+ * vt -b /full/path/to/samples/ -w 4
+ * vt --daemon -w 4 &
+ * vt --dir /full/path/to/release/share -w 4
+ * vt --watch /full/path/to/uploads --format jsonl
+ * vt -b /full/path/to/samples/ -w 4 --metrics
+ * vt -b /full/path/to/samples/ --record fixtures/
+ * vt -b /full/path/to/samples/ -w 4 --replay fixtures/ --max-age 0
+ * vt --dir /full/path/to/share --allowlist system-hashes.txt
+ * vt --resume ~/.vt/journals/20260101-120000-4242.jsonl -w 4
  * ------------------------------------------------------------------------------
  */
 
@@ -27,23 +160,36 @@
 // jansi - color printing
 // selenium - browser automation
 // file - dealing with file validity
-// List - compile JavaScript Array
+// List, Map - compile JavaScript Array of objects
+// function - hand streamed results to caller, create backends
 // logging - suppress logging
+// io - list batch directory, walk --dir tree, hash file
 
 import org.fusesource.jansi.Ansi;
 import org.openqa.selenium.JavascriptException;
 import org.openqa.selenium.JavascriptExecutor;
-import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeDriverLogLevel;
 import org.openqa.selenium.chrome.ChromeOptions;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,6 +212,163 @@ public class VT {
     private static final Ansi.Color ERROR_HIGHLIGHT = WHITE;
     private static final Ansi.Color ERROR_TEXT = RED;
     private static final String MESSAGE_PREFIX = "\n\"";
+    private static final String STDIN_LIST = "-";
+    private static final String DEFAULT_BASE_URL = "https://www.virustotal.com";
+    public static final String UPLOAD_PATH = "/gui/home/upload";
+    public static final String REPORT_PATH = "/gui/file/";
+    private static final String KNOWN_REPORT = "known";
+    private static final String UNKNOWN_REPORT = "unknown";
+    private static final long LOOKUP_TIMEOUT_MILLIS = 30000;
+    private static final int DEFAULT_TIMEOUT_SECONDS = 600;
+    private static final int DEFAULT_SETTLE_SECONDS = 2;
+    private static final int SUMMARY_ENGINES = 10;
+    public static final int TIMEOUT_STATUS = 124;
+    public static final int DETECTED_STATUS = 1;
+    public static final int SCAN_ERROR_STATUS = 2;
+    private static final String BROWSER_BACKEND = "browser";
+    private static final String API_BACKEND = "api";
+    private static final String API_KEY_ENV = "VT_API_KEY";
+
+    // Options that shape how a file is scanned; a running daemon scans with
+    // its own, so any of them makes a run scan in its own process
+    private static final String[] BACKEND_OPTIONS = {
+        "--backend", "--api-key", "--api-url", "--quota-minute",
+        "--quota-day", "--timeout", "--deadline", "--max-upload", "--lean",
+        "--recycle-after", "--browser-mb", "--workers", "-w"
+    };
+    public static final String CATEGORY_PENDING = "pending";
+    public static final String CATEGORY_UNDETECTED = "undetected";
+    public static final String CATEGORY_ERROR = "error";
+    public static final String CATEGORY_MALICIOUS = "malicious";
+    private static final String ALLOWLIST = "allowlist";
+    private static final String DENYLIST = "denylist";
+    private static final String CACHED = "cached";
+    private static final String JOURNALED = "journal";
+    private static final String ALLOWLIST_ENGINE = "Allowlist";
+    private static final String DENYLIST_ENGINE = "Denylist";
+    private static final String ALLOWLIST_RESULT = "Undetected";
+    private static final String DENYLIST_RESULT = "Known bad";
+
+    // Long messy JavaScript code to find text for scan completion
+    private static final String SCAN_COMPLETE_SCRIPT
+            = "return document.querySelector('vt-ui-shell"
+            + " div#view-container file-view')"
+            + ".shadowRoot"
+            + ".querySelector('vt-ui-main-generic-report#report"
+            + " vt-ui-file-card').shadowRoot"
+            + ".querySelector('vt-ui-generic-card div"
+            + " div.detections span div p').innerText;";
+
+    // Fields of each object RESULT_SCRIPT returns, all Strings
+    private static final List<String> RESULT_FIELDS
+            = List.of("engine", "verdict", "category");
+
+    // Long messy JavaScript code to turn each individual engine scan HTML
+    // element into an {engine, verdict, category} object in one round trip
+    private static final String RESULT_SCRIPT
+            = "return Array.from(document.querySelector("
+            + "'vt-ui-shell div#view-container file-view')"
+            + ".shadowRoot.querySelector('"
+            + "vt-ui-main-generic-report#report span.tab-slot"
+            + " vt-ui-detections-list#detectionsList')"
+            + ".shadowRoot.querySelector('div#detections')"
+            + ".querySelectorAll('div.detection'))"
+            + ".map(function (detection) {"
+            + "  var lines = detection.innerText.split('\\n');"
+            + "  var verdict = lines.length > 1 ? lines[1].trim() : '';"
+            + "  var category = verdict == '' ? '" + CATEGORY_PENDING + "'"
+            + "    : /^undetected$/i.test(verdict) ? '" + CATEGORY_UNDETECTED
+            + "'"
+            + "    : /^(confirmed timeout|timeout|unable to process file type)$/i"
+            + "      .test(verdict) ? '" + CATEGORY_ERROR + "'"
+            + "    : '" + CATEGORY_MALICIOUS + "';"
+            + "  return { engine: lines[0].trim(), verdict: verdict,"
+            + "           category: category };"
+            + "});";
+
+    // Long messy JavaScript code to turn the whole webpage, shadow roots
+    // included, into HTML that rebuilds it without running VirusTotal's
+    // scripts: shadow roots become declarative shadow DOM and stylesheets
+    // (linked or adopted) become <style> elements
+    private static final String SNAPSHOT_SCRIPT
+            = "function esc(text, attr) {"
+            + "  text = text.replace(/&/g, '&amp;').replace(/</g, '&lt;')"
+            + "              .replace(/>/g, '&gt;');"
+            + "  return attr ? text.replace(/\"/g, '&quot;') : text;"
+            + "}"
+            + "function rules(sheet) {"
+            + "  try {"
+            + "    return '<style>' + Array.from(sheet.cssRules).map("
+            + "        function (rule) { return rule.cssText; }).join('\\n')"
+            + "      + '</style>';"
+            + "  } catch (e) { return ''; }"
+            + "}"
+            + "function adopted(root) {"
+            + "  return Array.from(root.adoptedStyleSheets || []).map(rules)"
+            + "    .join('');"
+            + "}"
+            + "function children(node, raw) {"
+            + "  return Array.from(node.childNodes).map(function (child) {"
+            + "    return serialize(child, raw);"
+            + "  }).join('');"
+            + "}"
+            + "function serialize(node, raw) {"
+            + "  if (node.nodeType == 3) return raw ? node.data"
+            + "    : esc(node.data, false);"
+            + "  if (node.nodeType != 1) return '';"
+            + "  var tag = node.localName;"
+            + "  if (tag == 'script') return '';"
+            + "  if (tag == 'link' && node.sheet) return rules(node.sheet);"
+            + "  var html = '<' + tag + Array.from(node.attributes).map("
+            + "      function (a) { return ' ' + a.name + '=\"'"
+            + "        + esc(a.value, true) + '\"'; }).join('') + '>';"
+            + "  if (/^(area|base|br|col|embed|hr|img|input|link|meta|source"
+            + "|track|wbr)$/.test(tag)) return html;"
+            + "  if (tag == 'head') html += adopted(document);"
+            + "  if (node.shadowRoot) html += '<template"
+            + " shadowrootmode=\"open\">' + adopted(node.shadowRoot)"
+            + "    + children(node.shadowRoot, false) + '</template>';"
+            + "  html += children(tag == 'template' ? node.content : node,"
+            + "                   tag == 'style');"
+            + "  return html + '</' + tag + '>';"
+            + "}"
+            + "return '<!DOCTYPE html>\\n'"
+            + "  + serialize(document.documentElement, false) + '\\n';";
+
+    // Bounds every wait on the VirusTotal page; set from --timeout and
+    // --deadline in main
+    private static Waiter waiter = new Waiter(DEFAULT_TIMEOUT_SECONDS, 0);
+
+    // Writes results in the --format chosen in main; messages go to
+    // standard error unless results are written as the colored table
+    private static ResultWriter writer = new ResultWriter(ResultWriter.TABLE);
+
+    // Where the browser finds VirusTotal; set from --base-url or --replay
+    // in main
+    private static String baseUrl = DEFAULT_BASE_URL;
+
+    // Files larger than this are only looked up by hash, never uploaded;
+    // set from --max-upload in main
+    private static long maxUploadBytes
+            = FileUpload.megabytes(FileUpload.DEFAULT_MAX_UPLOAD_MB);
+
+    // Directory each scanned report is recorded into as a --replay fixture,
+    // or null; set from --record in main
+    private static Path recordDir = null;
+
+    // Scans, and memory in bytes, after which a browser is recycled (0 for
+    // no limit); set from --recycle-after and --browser-mb in main
+    private static int recycleAfter = DriverSupervisor.DEFAULT_RECYCLE_AFTER;
+    private static long maxBrowserBytes
+            = DriverSupervisor.megabytes(DriverSupervisor.DEFAULT_MAX_MB);
+
+    // Whether browsers start with the lean profile; set from --lean in main
+    private static boolean lean = false;
+
+    // Hashes of files known to be good or bad without a scan, or null; set
+    // from --allowlist and --denylist in main
+    private static HashIndex allowlist = null;
+    private static HashIndex denylist = null;
 
 
     // Print 'str' with 'highlight' and 'text' colors and with
@@ -74,11 +377,20 @@ public class VT {
                                   Ansi.Color text, String str) {
 
         // Clear terminal + print or don't clear terminal + print
+        Ansi colored;
         if (erase)
-            StdOut.print(ansi().eraseScreen().bg(highlight).fg(text).a(str)
-                               .reset());
+            colored = ansi().eraseScreen().bg(highlight).fg(text).a(str)
+                            .reset();
         else
-            StdOut.print(ansi().bg(highlight).fg(text).a(str).reset());
+            colored = ansi().bg(highlight).fg(text).a(str).reset();
+
+        // Keep standard output clean for machine-readable results
+        if (writer.isTable())
+            StdOut.print(colored);
+        else {
+            System.err.print(colored);
+            System.err.flush();
+        }
     }
 
 
@@ -106,8 +418,10 @@ public class VT {
                         + ".@@@@@@@@@@@@@@@@.............................."
                         + "...........................................\n";
 
-        // Clear terminal, print 'logo' with 'NORMAL_HIGHLIGHT' + 'text' color
-        colorPrint(true, NORMAL_HIGHLIGHT, text, logo);
+        // Clear terminal, print 'logo' with 'NORMAL_HIGHLIGHT' + 'text' color;
+        // no logo next to machine-readable results
+        if (writer.isTable())
+            colorPrint(true, NORMAL_HIGHLIGHT, text, logo);
     }
 
 
@@ -124,20 +438,175 @@ public class VT {
 
                 // Long help menu String
                 String helpMenu = "\nusage: vt [--help] [--file FILE_PATH]"
-                        + " [--engine ENGINE]\n\n"
+                        + " [--files LIST] [--workers N]\n\t  [--engine ENGINE]"
+                        + " [--max-age SECONDS]\n\t  [--cache-entries N]"
+                        + " [--timeout SECONDS]"
+                        + " [--deadline SECONDS]\n\t  [--stream]"
+                        + " [--stop-after-detections K]\n\t  [--format FORMAT]"
+                        + " [--backend BACKEND] [--api-key KEY]\n\t  [--api-url"
+                        + " URL] [--quota-minute N] [--quota-day N]\n\t  "
+                        + "[--daemon] [--socket PATH] [--no-daemon]"
+                        + " [--dir PATH]\n\t  [--manifest FILE] [--watch DIR]"
+                        + " [--settle SECONDS]\n\t  [--metrics]"
+                        + " [--metrics-file FILE] [--metrics-port PORT]\n\t  "
+                        + "[--record DIR] [--replay DIR] [--replay-port PORT]"
+                        + "\n\t  [--replay-delay MILLIS] [--render-delay MILLIS]"
+                        + "\n\t  [--base-url URL] [--summary] [--off-heap]"
+                        + "\n\t  [--max-upload MB] [--allowlist FILE]"
+                        + " [--denylist FILE]\n\t  [--journal FILE]"
+                        + " [--resume JOURNAL]\n\t  [--recycle-after N]"
+                        + " [--browser-mb MB] [--lean]\n\n"
                         + "Scan your file across multiple antivirus engines\n\n"
                         + "arguments:\n"
                         + " --help, -h\t\t: display this help menu and exit\n"
                         + " --file, -f FILE_PATH\t: path of file to"
                         + " send to VirusTotal\n"
+                        + " --files, -b LIST\t: batch scan with one browser"
+                        + " session; LIST is\n\t\t\t  comma separated file"
+                        + " paths, a directory, or\n\t\t\t  '-' to read one"
+                        + " file path per line from stdin\n"
+                        + " --workers, -w N\t: (optional) number of browsers"
+                        + " scanning batch\n\t\t\t  files at the same time"
+                        + " (default is 1)\n"
                         + " --engine, -e ENGINE\t: (optional) choose what"
-                        + " antivirus engine to\n\t\t\t  scan with (default is"
-                        + " all available)\n\n"
+                        + " antivirus engines to\n\t\t\t  scan with, comma"
+                        + " separated; a scan ends\n\t\t\t  once they all"
+                        + " have a result (default is\n\t\t\t  all"
+                        + " available)\n"
+                        + " --max-age SECONDS\t: (optional) reuse cached"
+                        + " results younger than\n\t\t\t  SECONDS; 0 forces a"
+                        + " fresh scan (default is\n\t\t\t  86400)\n"
+                        + " --cache-entries N\t: (optional) most scanned files"
+                        + " kept in\n\t\t\t  the result cache (default is"
+                        + " 10000)\n"
+                        + " --timeout SECONDS\t: (optional) longest wait for"
+                        + " each step of a\n\t\t\t  scan (default is 600)\n"
+                        + " --deadline SECONDS\t: (optional) longest the whole"
+                        + " run may take\n\t\t\t  (default is no limit)\n"
+                        + " --stream\t\t: (optional) print each engine result"
+                        + " as soon as\n\t\t\t  the engine finishes\n"
+                        + " --stop-after-detections K : (optional) stream, and"
+                        + " stop scanning a\n\t\t\t  file once K engines flag"
+                        + " it\n"
+                        + " --format FORMAT\t: (optional) table, json, jsonl or"
+                        + " csv; anything\n\t\t\t  but table sends messages"
+                        + " to stderr (default is\n\t\t\t  table)\n"
+                        + " --backend BACKEND\t: (optional) browser (drive the"
+                        + " VirusTotal\n\t\t\t  website) or api (VirusTotal"
+                        + " REST API, needs an\n\t\t\t  API key) (default is"
+                        + " browser)\n"
+                        + " --api-key KEY\t\t: (optional) VirusTotal API key"
+                        + " for the api\n\t\t\t  backend (default is"
+                        + " $VT_API_KEY)\n"
+                        + " --api-url URL\t\t: (optional) base URL of the"
+                        + " VirusTotal API\n\t\t\t  (default is"
+                        + " https://www.virustotal.com)\n"
+                        + " --quota-minute N\t: (optional) api backend requests"
+                        + " allowed per\n\t\t\t  minute (default is 4)\n"
+                        + " --quota-day N\t\t: (optional) api backend requests"
+                        + " allowed per\n\t\t\t  UTC day by all runs with the"
+                        + " key (default is\n\t\t\t  500)\n"
+                        + " --daemon\t\t: keep the JVM and --workers warm"
+                        + " backends\n\t\t\t  running and scan files sent by"
+                        + " other vt\n\t\t\t  invocations over --socket\n"
+                        + " --socket PATH\t\t: (optional) Unix domain socket of"
+                        + " the daemon\n\t\t\t  (default is ~/.vt/vt.sock)\n"
+                        + " --no-daemon\t\t: (optional) scan in this process"
+                        + " even if a\n\t\t\t  daemon is running; so do"
+                        + " --stream, --record,\n\t\t\t  --replay, --base-url"
+                        + " and any option of the\n\t\t\t  backend"
+                        + " (--backend, --api-key, --api-url,\n\t\t\t "
+                        + " --quota-minute, --quota-day, --timeout,\n\t\t\t "
+                        + " --deadline, --max-upload, --lean,\n\t\t\t "
+                        + " --recycle-after, --browser-mb, --workers)\n"
+                        + " --dir PATH\t\t: batch scan every file under"
+                        + " directory PATH,\n\t\t\t  submitting only files"
+                        + " that are new or changed\n\t\t\t  since the last"
+                        + " --dir run\n"
+                        + " --manifest FILE\t: (optional) where --dir records"
+                        + " the files it\n\t\t\t  scanned (default is one"
+                        + " file per directory in\n\t\t\t  ~/.vt/manifests)"
+                        + "\n"
+                        + " --watch DIR\t\t: scan each file created or"
+                        + " modified in DIR (or\n\t\t\t  a folder under it)"
+                        + " until stopped with Ctrl-C\n"
+                        + " --settle SECONDS\t: (optional) how long a watched"
+                        + " file must stay\n\t\t\t  unchanged before it is"
+                        + " scanned (default is 2)\n"
+                        + " --metrics\t\t: (optional) print count, p50, p90,"
+                        + " p99 and max\n\t\t\t  latency of each scan phase,"
+                        + " and browser\n\t\t\t  memory after each scan, at"
+                        + " exit\n"
+                        + " --metrics-file FILE\t: (optional) write phase"
+                        + " latency to FILE in\n\t\t\t  Prometheus text"
+                        + " format at exit\n"
+                        + " --metrics-port PORT\t: (optional) serve phase"
+                        + " latency at\n\t\t\t  http://127.0.0.1:PORT/metrics"
+                        + " while running\n"
+                        + " --record DIR\t\t: (optional) save each finished"
+                        + " report page,\n\t\t\t  shadow roots included, to"
+                        + " DIR for --replay\n"
+                        + " --replay DIR\t\t: serve reports recorded in DIR"
+                        + " instead of\n\t\t\t  VirusTotal and scan against"
+                        + " them; on its own,\n\t\t\t  serve until stopped"
+                        + " with Ctrl-C\n"
+                        + " --replay-port PORT\t: (optional) port --replay"
+                        + " serves on (default\n\t\t\t  is any free port)\n"
+                        + " --replay-delay MILLIS\t: (optional) hold every"
+                        + " replayed page back\n\t\t\t  MILLIS (default is"
+                        + " 0)\n"
+                        + " --render-delay MILLIS\t: (optional) show each"
+                        + " replayed report MILLIS\n\t\t\t  after its page"
+                        + " loaded (default is 0)\n"
+                        + " --base-url URL\t\t: (optional) VirusTotal website the"
+                        + " browser uses,\n\t\t\t  e.g. a vt --replay server"
+                        + " (default is\n\t\t\t  https://www.virustotal.com)"
+                        + "\n"
+                        + " --summary\t\t: (optional) after a batch, print how"
+                        + " many files\n\t\t\t  were flagged and which"
+                        + " engines flagged most\n"
+                        + " --off-heap\t\t: (optional) keep a batch's results"
+                        + " outside the\n\t\t\t  Java heap\n"
+                        + " --max-upload MB\t: (optional) never upload files"
+                        + " larger than MB;\n\t\t\t  look them up by hash"
+                        + " only (default is 650)\n"
+                        + " --allowlist FILE\t: (optional) report files whose"
+                        + " SHA-256 hash\n\t\t\t  is listed in FILE as"
+                        + " undetected without\n\t\t\t  scanning\n"
+                        + " --denylist FILE\t: (optional) report files whose"
+                        + " SHA-256 hash\n\t\t\t  is listed in FILE as known"
+                        + " bad without\n\t\t\t  scanning\n"
+                        + " --journal FILE\t: (optional) where a batch records"
+                        + " each file's\n\t\t\t  progress and results"
+                        + " (default is a new file\n\t\t\t  in"
+                        + " ~/.vt/journals, deleted once every file\n\t\t\t"
+                        + "  completed)\n"
+                        + " --resume JOURNAL\t: pick up the batch recorded in"
+                        + " JOURNAL, skipping\n\t\t\t  files that completed"
+                        + " and haven't\n\t\t\t  changed since; with -b or"
+                        + " --dir,\n\t\t\t  reuse its results for those"
+                        + " files\n"
+                        + " --recycle-after N\t: (optional) start each browser"
+                        + " again after N\n\t\t\t  scans; 0 never does"
+                        + " (default is 100)\n"
+                        + " --browser-mb MB\t: (optional) start a browser"
+                        + " again once its\n\t\t\t  processes use over MB; 0"
+                        + " never does (default\n\t\t\t  is 2048)\n"
+                        + " --lean\t\t\t: (optional) start browsers without"
+                        + " images,\n\t\t\t  fonts, media, trackers and"
+                        + " unused features,\n\t\t\t  keeping their disk"
+                        + " cache in ~/.vt/chrome-cache\n\n"
+                        + "Exits with status 124 if a wait runs past --timeout"
+                        + " or --deadline, with\nstatus 2 if VirusTotal couldn't"
+                        + " scan the file, and with status 1 if\n"
+                        + "--stop-after-detections K was reached for any"
+                        + " file or any file was\non --denylist.\n\n"
                         + "See https://support.virustotal.com/hc/en-us/"
                         + "articles/115002146809-Contributors\n"
                         + "to see the full list of antivirus engines\n\n"
                         + "example:\n"
-                        + "vt -f /full/path/to/java.exe -e Kaspersky\n";
+                        + "vt -f /full/path/to/java.exe -e Kaspersky\n"
+                        + "vt -b /full/path/to/samples/ -w 4\n";
 
                 // Don't clear terminal, print 'helpMenu' with
                 // 'NORMAL_HIGHLIGHT' + 'text' color
@@ -191,6 +660,56 @@ public class VT {
     }
 
 
+    // Return true if 'args' (command line arguments) contain 'flag'
+    private static boolean flagEntered(String[] args, String flag) {
+        for (String arg : args)
+            if (arg.equalsIgnoreCase(flag))
+                return true;
+        return false;
+    }
+
+
+    // Return whole number of at least 'minValue' from 'args' (command line
+    // arguments) following 'flag' or 'shortFlag', or 'defaultValue' if flag
+    // not entered
+    private static int intArg(String[] args, String flag, String shortFlag,
+                              int defaultValue, int minValue) {
+
+        // Argument after the flag
+        String cla = cmdLineArg(args, flag, shortFlag);
+        if (cla.isEmpty())
+            return defaultValue;
+
+        // Argument is a whole number of at least 'minValue'
+        try {
+            int value = Integer.parseInt(cla);
+            if (value >= minValue)
+                return value;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to error message
+        }
+
+        // Color print error message
+        String message = "\nPlease enter a whole number of at least "
+                + minValue + " after the " + flag + " flag.\n";
+        colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        StdOut.println();
+
+        // End program
+        System.exit(0);
+        return defaultValue;
+    }
+
+
+    // Return true if 'absFilePath' is a valid, existing, accessible file
+    private static boolean isAccessibleFile(Path absFilePath) {
+        return Files.isRegularFile(absFilePath)
+                && Files.isReadable(absFilePath)
+                && Files.isExecutable(absFilePath) && Files.exists(absFilePath);
+    }
+
+
     // Check if 'filePath' represent a valid, existing, accessible file
     // and return absolute file path to the file
     private static String fileExists(String filePath) {
@@ -198,13 +717,8 @@ public class VT {
         // Absolute path of 'filePath'
         Path absFilePath = Paths.get(filePath).toAbsolutePath();
 
-        // Is the file valid, existing, accessible file
-        boolean realFile = Files.isRegularFile(absFilePath)
-                && Files.isReadable(absFilePath)
-                && Files.isExecutable(absFilePath) && Files.exists(absFilePath);
-
         // If not valid, existing, accessible file
-        if (!realFile) {
+        if (!isAccessibleFile(absFilePath)) {
 
             // Color print error message
             String message = MESSAGE_PREFIX + filePath + "\" is not an"
@@ -221,111 +735,996 @@ public class VT {
     }
 
 
-    // Execute JavaScript 'script' on webpage open on 'driver' (browser)
-    // and return the HTML element if you want to return something (!'noReturn')
-    public static WebElement findElement(WebDriver driver, String script,
-                                         boolean noReturn) {
+    // Return absolute paths of the accessible files named by batch 'list':
+    // comma separated file paths, a directory (its files), or STDIN_LIST
+    // (one file path per line read from standard input); inaccessible
+    // entries are reported and skipped so one bad path doesn't end the batch
+    private static List<String> batchFiles(String list) {
 
-        // HTML element returned from JavaScript script or null
-        WebElement element = null;
+        // Candidate file paths named by 'list'
+        List<String> candidates = new ArrayList<String>();
 
-        // JavaScript 'script' returns something
-        try {
-            JavascriptExecutor js = (JavascriptExecutor) driver;
-            element = (WebElement) js.executeScript(script);
+        // Read one file path per line from standard input
+        if (list.equals(STDIN_LIST)) {
+            for (String line : StdIn.readAllLines())
+                if (!line.trim().isEmpty())
+                    candidates.add(line.trim());
         }
-        finally {
 
-            // If you want to return the HTML element, but JavaScript 'script'
-            // doesn't return anything
-            if (element == null && !noReturn) {
+        // List the files directly inside the directory
+        else if (Files.isDirectory(Paths.get(list))) {
+            try (DirectoryStream<Path> dir
+                         = Files.newDirectoryStream(Paths.get(list))) {
+                for (Path file : dir)
+                    if (Files.isRegularFile(file))
+                        candidates.add(file.toString());
+            }
+            catch (IOException e) {
 
                 // Color print error message
-                String message = "\nELEMENT NOT FOUND: There was an error with"
-                        + " VirusTotal. Please try again.\n";
+                String message = MESSAGE_PREFIX + list + "\" could not be"
+                        + " read.\n";
                 colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
-                driver.quit();
                 StdOut.println();
 
                 // End program
                 System.exit(0);
             }
+            Collections.sort(candidates);
+        }
+
+        // Split comma separated file paths
+        else {
+            for (String filePath : list.split(","))
+                if (!filePath.trim().isEmpty())
+                    candidates.add(filePath.trim());
+        }
+
+        // Keep only valid, existing, accessible files
+        List<String> absFilePaths = new ArrayList<String>();
+        for (String filePath : candidates) {
+            Path absFilePath = Paths.get(filePath).toAbsolutePath();
+            if (isAccessibleFile(absFilePath))
+                absFilePaths.add(absFilePath.toString());
+            else {
+                String message = MESSAGE_PREFIX + filePath + "\" is not an"
+                        + " accessible file. Skipped.\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            }
         }
 
+        // Return absolute paths of files to scan
+        return absFilePaths;
+    }
+
+
+    // Return <absolute file path, attributes> of every valid, existing,
+    // accessible file under directory 'dirPath'; ends program if 'dirPath'
+    // isn't a readable directory
+    private static ST<String, BasicFileAttributes> walkDirectory(
+            String dirPath) {
+
+        // Files under 'dirPath' skipped as not accessible
+        int[] skipped = new int[1];
+        ST<String, BasicFileAttributes> tree = null;
+        try {
+            if (Files.isDirectory(Paths.get(dirPath)))
+                tree = DirectoryWalker.files(Paths.get(dirPath), file -> {
+                    if (isAccessibleFile(file))
+                        return true;
+                    skipped[0]++;
+                    return false;
+                });
+        }
+        catch (IOException e) {
+            tree = null;
+        }
+
+        // Not a readable directory
+        if (tree == null) {
+
+            // Color print error message
+            String message = MESSAGE_PREFIX + dirPath + "\" is not a readable"
+                    + " directory.\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            StdOut.println();
+
+            // End program
+            System.exit(0);
+        }
+
+        // Report inaccessible files once instead of per file
+        if (skipped[0] > 0) {
+            String message = "\n" + skipped[0] + " files in \"" + dirPath
+                    + "\" are not accessible. Skipped.\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        }
+
+        // Return files to consider
+        return tree;
+    }
+
+
+    // Return absolute paths of the files in 'tree' whose size or
+    // last-modified time differ from 'previous' (manifest of the last run);
+    // the others are unchanged and recorded in 'manifest' as they are
+    private static List<String> changedFiles(
+            ST<String, BasicFileAttributes> tree, Manifest previous,
+            Manifest manifest) {
+        List<String> changed = new ArrayList<String>();
+        for (String absFilePath : tree.keys()) {
+            BasicFileAttributes attrs = tree.get(absFilePath);
+            String sha256 = previous.unchangedSha256(absFilePath, attrs);
+            if (sha256 == null)
+                changed.add(absFilePath);
+            else
+                manifest.put(absFilePath, attrs, sha256);
+        }
+        return changed;
+    }
+
+
+    // Execute JavaScript 'script' on webpage open on 'driver' (browser)
+    // and return the HTML element if you want to return something (!'noReturn');
+    // throw ScanException if the script fails or returns no element, so the
+    // caller decides whether the file is skipped or the program ends
+    public static WebElement findElement(WebDriver driver, String script,
+                                         boolean noReturn) {
+
+        // HTML element returned from JavaScript script or null
+        WebElement element;
+
+        // JavaScript 'script' returns something
+        try {
+            JavascriptExecutor js = (JavascriptExecutor) driver;
+            element = (WebElement) js.executeScript(script);
+        }
+        catch (WebDriverException e) {
+            throw new ScanException("Element not found; there was an error"
+                                            + " with VirusTotal", e);
+        }
+
+        // If you want to return the HTML element, but JavaScript 'script'
+        // doesn't return anything
+        if (element == null && !noReturn)
+            throw new ScanException("Element not found; there was an error"
+                                            + " with VirusTotal");
+
         // Return the HTML element or null
         return element;
     }
 
 
     // Returns true when a String is returned from execution of JavaScript
-    // 'script' on webpage open on 'driver' (browser)
+    // 'script' on webpage open on 'driver' (browser); polls with backoff and
+    // throws ScanTimeoutException if no String shows up in time
     public static boolean foundString(WebDriver driver, String script) {
 
-        // String to be returned from JavaScript 'script' execution
-        String str = "";
-
         // Keep executing JavaScript 'script' until a String is returned
-        while (str == null || str.isEmpty()) {
+        long started = System.nanoTime();
+        waiter.await("scan results", () -> {
 
             // Execute 'script'
             try {
                 JavascriptExecutor js = (JavascriptExecutor) driver;
-                str = (String) js.executeScript(script);
+                String str = (String) js.executeScript(script);
+                if (str != null && !str.isEmpty())
+                    return str;
             }
 
             // Execute 'script' again
             catch (JavascriptException e) {
-                continue;
+                // Fall through to retry
             }
-        }
+            return null;
+        });
+        Metrics.record(Metrics.WAIT, started);
 
         // Return true when a String is returned
         return true;
     }
 
 
-    // Return a list of HTML elements that is returned from executing
-    // JavaScript 'resultScript' on webpage open on 'driver' (browser)
-    public static List<WebElement> findResult(WebDriver driver,
-                                              String resultScript) {
+    // Color print that a wait described by 'e' ran out of time, close
+    // 'backend' if not null and end program with TIMEOUT_STATUS
+    public static void timeout(ScanBackend backend, ScanTimeoutException e) {
+
+        // Color print error message
+        String message = "\nTIMED OUT: " + e.getMessage() + ".\n";
+        colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        if (backend != null)
+            backend.close();
+        writer.close();
+        StdOut.println();
+
+        // End program
+        System.exit(TIMEOUT_STATUS);
+    }
+
+
+    // Color print that the file couldn't be scanned because of 'e', close
+    // 'backend' if not null and end program with SCAN_ERROR_STATUS
+    public static void scanError(ScanBackend backend, ScanException e) {
+
+        // Color print error message
+        String message = "\nSCAN FAILED: " + e.getMessage() + ".\n";
+        colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        if (backend != null)
+            backend.close();
+        writer.close();
+        StdOut.println();
 
-        // List of HTML elements returned from execution of JavaScript
-        // 'resultScript'
+        // End program
+        System.exit(SCAN_ERROR_STATUS);
+    }
+
+
+    // Return the list of {engine, verdict, category} objects that is returned
+    // from executing JavaScript 'resultScript' on webpage open on 'driver'
+    // (browser); one script call replaces a getText() round trip per engine
+    // and can't hit stale elements; throw ScanException if the script
+    // returns anything else (e.g. the page changed)
+    public static List<Map<String, Object>> findResult(WebDriver driver,
+                                                       String resultScript) {
+
+        // Value returned from execution of JavaScript 'resultScript'
         JavascriptExecutor js = (JavascriptExecutor) driver;
-        List<WebElement> detectionElements = (List<WebElement>)
-                js.executeScript(resultScript);
+        Object returned = js.executeScript(resultScript);
+        if (!(returned instanceof List))
+            throw new ScanException("The VirusTotal page returned no list of"
+                                            + " engine results");
+
+        // Copy each {engine, verdict, category} object, checking its shape
+        List<Map<String, Object>> detections
+                = new ArrayList<Map<String, Object>>();
+        for (Object element : (List<?>) returned) {
+            if (!(element instanceof Map))
+                throw new ScanException("The VirusTotal page returned an"
+                                                + " engine result that isn't"
+                                                + " an object");
+            Map<String, Object> detection = new HashMap<String, Object>();
+            for (String field : RESULT_FIELDS) {
+                Object value = ((Map<?, ?>) element).get(field);
+                if (!(value instanceof String))
+                    throw new ScanException("The VirusTotal page returned an"
+                                                    + " engine result without"
+                                                    + " its " + field);
+                detection.put(field, value);
+            }
+            detections.add(detection);
+        }
 
-        // Return list of HTML elements
-        return detectionElements;
+        // Return list of objects
+        return detections;
     }
 
 
-    //  If specified engine found, removes all <engine, result> pairs that are
-    //  not the <'selectEngine', result> pair from 'rawScanResults' SymbolTable
-    public static void removeEngines(String selectEngine,
-                                     ST<String, String> rawScanResults) {
+    // Put <engine, verdict> pair of each of 'detections' that has a verdict
+    // into 'rawScanResults' SymbolTable
+    public static void putResults(List<Map<String, Object>> detections,
+                                  ST<String, String> rawScanResults) {
 
-        // Compile array of engines to remove; '- 1' since all are removed
-        // except the one <'selectEngine', result> pair
-        String[] removeEngines = new String[rawScanResults.size() - 1];
-        int index = 0;
+        // Iterate through each engine scan
+        for (Map<String, Object> detection : detections) {
+
+            // Continue if no result in engine scan yet
+            if (CATEGORY_PENDING.equals(detection.get("category")))
+                continue;
+
+            // Put <engine, result> pair into SymbolTable
+            rawScanResults.put((String) detection.get("engine"),
+                               (String) detection.get("verdict"));
+        }
+    }
+
+
+    //  Removes all <engine, result> pairs of engines not in 'engines' from
+    //  'rawScanResults' SymbolTable and returns the names of the engines
+    //  left, comma separated
+    public static String removeEngines(EngineSelection engines,
+                                       ST<String, String> rawScanResults) {
+
+        // One pass sorts engines into kept and removed; removing while
+        // iterating the keys isn't allowed
+        List<String> removeEngines = new ArrayList<String>(
+                rawScanResults.size());
+        StringBuilder kept = new StringBuilder();
         for (String engine : rawScanResults.keys()) {
-            if (!engine.equalsIgnoreCase(selectEngine)) {
-                removeEngines[index] = engine;
-                index++;
+            if (engines.contains(engine)) {
+                if (kept.length() > 0)
+                    kept.append(',');
+                kept.append(engine);
             }
+            else
+                removeEngines.add(engine);
         }
 
-        // Remove <engine, result> pairs for engines in the
-        // above compiled array
+        // Remove <engine, result> pairs for engines in the above list
         for (String removeEngine : removeEngines)
-            if (removeEngine != null)
-                rawScanResults.remove(removeEngine);
+            rawScanResults.remove(removeEngine);
+
+        // Return engines left
+        return kept.toString();
+    }
+
+
+    // Start headless Chrome WebDriver (browser) with logging suppressed and,
+    // if 'lean' isn't null, the lean profile of --lean
+    public static WebDriver startDriver(LeanProfile lean) {
+
+        // Locate ChromeDriver binary
+        System.setProperty("webdriver.chrome.driver",
+                           ".\\chromedriver_win32\\chromedriver.exe");
+
+        // Browsing options
+        ChromeOptions options = new ChromeOptions();
+        options.setHeadless(true);
+        //      Logging suppression
+        options.setLogLevel(ChromeDriverLogLevel.OFF);
+        Logger.getLogger("org.openqa.selenium").setLevel(Level.OFF);
+        //      Fewer features, requests and downloads
+        if (lean != null)
+            lean.apply(options);
+        long started = System.nanoTime();
+        WebDriver driver = new ChromeDriver(options);
+        if (lean != null)
+            lean.block(driver);
+        Metrics.record(Metrics.DRIVER_START, started);
+        return driver;
+    }
+
+
+    // Go to existing VirusTotal report for 'sha256' hash with 'driver'
+    // (browser) and return true if VirusTotal already knows the file
+    public static boolean lookupReport(WebDriver driver, String sha256) {
+
+        // Go to VirusTotal report for the hash
+        long started = System.nanoTime();
+        driver.get(baseUrl + REPORT_PATH + sha256);
+        Metrics.record(Metrics.PAGE_LOAD, started);
+
+        // Check whether the report card or a different view (not found)
+        // shows up
+        //      Long messy JavaScript code to tell the two apart
+        String reportScript = "var view = document.querySelector('vt-ui-shell"
+                + " div#view-container');"
+                + "if (view == null || view.children.length == 0) return '';"
+                + "var fileView = view.querySelector('file-view');"
+                + "if (fileView == null) return '" + UNKNOWN_REPORT + "';"
+                + "if (fileView.shadowRoot == null) return '';"
+                + "var report = fileView.shadowRoot.querySelector("
+                + "'vt-ui-main-generic-report#report vt-ui-file-card');"
+                + "return report == null ? '' : '" + KNOWN_REPORT + "';";
+
+        // Poll until the page settles or LOOKUP_TIMEOUT_MILLIS passes
+        started = System.nanoTime();
+        try {
+            return waiter.await("report lookup", LOOKUP_TIMEOUT_MILLIS, () -> {
+
+                // Execute 'reportScript'
+                try {
+                    JavascriptExecutor js = (JavascriptExecutor) driver;
+                    String report = (String) js.executeScript(reportScript);
+                    if (KNOWN_REPORT.equals(report))
+                        return true;
+                    if (UNKNOWN_REPORT.equals(report))
+                        return false;
+                }
+
+                // Page still loading; execute 'reportScript' again
+                catch (JavascriptException e) {
+                    // Fall through to retry
+                }
+                return null;
+            });
+        }
+
+        // Page never settled; treat the file as unknown and upload it,
+        // unless the whole run is out of time
+        catch (ScanTimeoutException e) {
+            if (e.isDeadline())
+                throw e;
+            return false;
+        }
+        finally {
+            Metrics.record(Metrics.LOOKUP, started);
+        }
+    }
+
+
+    // Upload file at 'absFilePath' to VirusTotal with 'driver' (browser)
+    public static void uploadFile(WebDriver driver, String absFilePath) {
+
+        // Go to VirusTotal
+        long started = System.nanoTime();
+        driver.get(baseUrl + UPLOAD_PATH);
+        Metrics.record(Metrics.PAGE_LOAD, started);
+        started = System.nanoTime();
+
+        // Find 'Choose file' button
+        //      Long messy JavaScript code to find the button
+        String script = "return document.querySelector('vt-ui-shell"
+                + " div#view-container home-view')"
+                + ".shadowRoot.querySelector('div.wrapper"
+                + " div.omnibar vt-ui-selector#section"
+                + " div.vt-selected vt-ui-main-upload-form#uploadForm')"
+                + ".shadowRoot"
+                + ".querySelector('div.wrapper input#fileSelector')";
+        WebElement fileUpload = findElement(driver, script, false);
+
+        // Upload file
+        fileUpload.sendKeys(absFilePath);
+
+        // Check if the file has been uploaded to VirusTotal before
+        //      If file is new to VirusTotal, click 'Confirm upload' button
+        //          Long messy JavaScript code to find + click the button
+        String newFileScript = "document.querySelector('vt-ui-shell')"
+                + ".shadowRoot.querySelector('vt-ui-dialog#uploadModal')"
+                + ".getElementsByClassName('content upload-dialog')[0]"
+                + ".querySelector('vt-ui-main-upload-form#uploadMoldaForm')"
+                + ".shadowRoot.querySelector('div.wrapper"
+                + " vt-ui-button#confirmUpload').click();";
+        findElement(driver, newFileScript, true);
+        Metrics.record(Metrics.UPLOAD, started);
+    }
+
+
+    // Return SHA-256 hash of file at 'absFilePath', or "" if the file
+    // can't be read
+    public static String hashFile(String absFilePath) {
+        try {
+            return FileHash.sha256(Paths.get(absFilePath));
+        }
+        catch (IOException e) {
+            return "";
+        }
+    }
+
+
+    // Return DENYLIST or ALLOWLIST if 'sha256' is on --denylist or
+    // --allowlist (the denylist wins), else CACHED
+    private static String knownSource(String sha256) {
+        if (denylist != null && denylist.contains(sha256))
+            return DENYLIST;
+        if (allowlist != null && allowlist.contains(sha256))
+            return ALLOWLIST;
+        return CACHED;
+    }
+
+
+    // Return <engine, result> pairs for 'sha256' that need no scan: the
+    // --denylist or --allowlist verdict if it is listed, else its results
+    // in 'cache'; null if the file has to be scanned
+    private static ST<String, String> knownResults(ResultCache cache,
+                                                   String sha256) {
+        String source = knownSource(sha256);
+        if (source.equals(CACHED))
+            return cache.get(sha256);
+        ST<String, String> rawScanResults = new ST<String, String>();
+        if (source.equals(DENYLIST))
+            rawScanResults.put(DENYLIST_ENGINE, DENYLIST_RESULT);
+        else
+            rawScanResults.put(ALLOWLIST_ENGINE, ALLOWLIST_RESULT);
+        return rawScanResults;
+    }
+
+
+    // Return index of hash list at 'list' given with 'flag'; ends program
+    // if it can't be read
+    private static HashIndex openIndex(String list, String flag) {
+        try {
+            HashIndex index = HashIndex.open(Paths.get(list));
+            String message = "\n" + index.size() + " hashes on " + flag
+                    + " \"" + list + "\".\n";
+            colorPrint(false, BLACK, CYAN, message);
+            return index;
+        }
+        catch (IOException e) {
+
+            // Color print error message
+            String message = "\nCould not read " + flag + " \"" + list
+                    + "\": " + e.getMessage() + ".\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            StdOut.println();
+
+            // End program
+            System.exit(0);
+            return null;
+        }
+    }
+
+
+    // Open VirusTotal report for file at 'absFilePath' with 'sha256' hash
+    // (or "" if unknown) with 'driver' (browser): go straight to the existing
+    // report for the hash, uploading the file only if VirusTotal doesn't
+    // know the hash
+    public static void openReport(WebDriver driver, String absFilePath,
+                                  String sha256) {
+
+        // Upload file only if VirusTotal has no report for its hash and it
+        // isn't over the size ceiling (Chrome reads an uploaded file into
+        // memory whole); each file starts from a fresh page so one 'driver'
+        // can be reused for a whole batch
+        if (sha256.isEmpty() || !lookupReport(driver, sha256)) {
+            FileUpload.checkSize(Paths.get(absFilePath), maxUploadBytes);
+            uploadFile(driver, absFilePath);
+        }
+    }
+
+
+    // Scan file at 'absFilePath' with 'sha256' hash (or "" if unknown) with
+    // 'driver' (browser), wait until all engine scans are complete, or until
+    // every engine of 'engines' has a result, and return <engine, result>
+    // pairs
+    public static ST<String, String> scanFile(WebDriver driver,
+                                              String absFilePath,
+                                              String sha256,
+                                              EngineSelection engines) {
+
+        // Selected engines are watched as they finish, like a stream
+        if (!engines.isAll())
+            return streamFile(driver, absFilePath, sha256, 0, engines,
+                              scanResult -> { });
+
+        // Go to the report for the file
+        openReport(driver, absFilePath, sha256);
+
+        // SymbolTable for <engine, result> pairs
+        // https://introcs.cs.princeton.edu/java/44st/
+        // https://introcs.cs.princeton.edu/java/code/javadoc/ST.html
+        ST<String, String> rawScanResults = new ST<String, String>();
+
+        // If/wait until all engine scans are complete
+        if (foundString(driver, SCAN_COMPLETE_SCRIPT)) {
+
+            // Compile {engine, verdict, category} for each engine scan;
+            // timed here, once per report, since streaming scans read
+            // results on every poll of their wait
+            long started = System.nanoTime();
+            List<Map<String, Object>> detections = findResult(driver,
+                                                              RESULT_SCRIPT);
+            Metrics.record(Metrics.EXTRACT, started);
+
+            // Put <engine, result> pairs into SymbolTable
+            putResults(detections, rawScanResults);
+
+            // Keep the finished report for --replay
+            recordReport(driver, sha256);
+        }
+
+        // Return <engine, result> pairs
+        return rawScanResults;
+    }
+
+
+    // Scan file at 'absFilePath' with 'sha256' hash (or "" if unknown) with
+    // 'driver' (browser), handing each engine scan to 'onResult' as soon as
+    // the engine finishes; stop once all engine scans are complete, once
+    // every engine of 'engines' has a result or once 'stopAfter' engines
+    // flagged the file (if 'stopAfter' > 0) and return the <engine, result>
+    // pairs seen so far
+    public static ST<String, String> streamFile(WebDriver driver,
+                                                String absFilePath,
+                                                String sha256, int stopAfter,
+                                                EngineSelection engines,
+                                                Consumer<ScanResult> onResult) {
+
+        // Go to the report for the file
+        openReport(driver, absFilePath, sha256);
+
+        // <engine, result> pairs handed out so far
+        ST<String, String> rawScanResults = new ST<String, String>();
+        int detected = 0;
+        boolean[] complete = new boolean[] { false };
+
+        while (!complete[0] && (stopAfter <= 0 || detected < stopAfter)
+                && !engines.isComplete(rawScanResults)) {
+
+            // Wait until new engine scans finish or all are complete
+            long started = System.nanoTime();
+            List<Map<String, Object>> detections
+                    = waiter.await("engine results", () -> {
+                try {
+                    complete[0] = scanComplete(driver);
+                    List<Map<String, Object>> found
+                            = findResult(driver, RESULT_SCRIPT);
+                    for (Map<String, Object> detection : found)
+                        if (!CATEGORY_PENDING.equals(detection.get("category"))
+                                && !rawScanResults.contains(
+                                (String) detection.get("engine")))
+                            return found;
+                    return complete[0] ? found : null;
+                }
+
+                // Detections list not on the page yet
+                catch (JavascriptException e) {
+                    return null;
+                }
+            });
+            Metrics.record(Metrics.WAIT, started);
+
+            // Hand out each newly finished engine scan
+            for (Map<String, Object> detection : detections) {
+                String engine = (String) detection.get("engine");
+                String result = (String) detection.get("verdict");
+                if (CATEGORY_PENDING.equals(detection.get("category"))
+                        || rawScanResults.contains(engine))
+                    continue;
+
+                rawScanResults.put(engine, result);
+                if (CATEGORY_MALICIOUS.equals(detection.get("category")))
+                    detected++;
+                onResult.accept(new ScanResult(engine, result));
+
+                // Enough engines flagged the file
+                if (stopAfter > 0 && detected >= stopAfter)
+                    break;
+            }
+        }
+
+        // Keep the report for --replay if it finished
+        if (complete[0])
+            recordReport(driver, sha256);
+
+        // Return <engine, result> pairs seen so far
+        return rawScanResults;
+    }
+
+
+    // Save report for 'sha256' hash open on 'driver' (browser) into the
+    // --record directory, if there is one, as a --replay fixture
+    private static void recordReport(WebDriver driver, String sha256) {
+        if (recordDir == null || sha256.isEmpty())
+            return;
+
+        // Write whole page, replacing an older recording in one move
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        String page = (String) js.executeScript(SNAPSHOT_SCRIPT);
+        Path fixture = ReplayServer.fixture(recordDir, sha256);
+        Path temp = fixture.resolveSibling(fixture.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(recordDir);
+            Files.write(temp, page.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, fixture, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Color print error message; the scan itself succeeded
+        catch (IOException e) {
+            String message = "\nCould not record report: " + e.getMessage()
+                    + ".\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        }
+    }
+
+
+    // Return true if all engine scans on webpage open on 'driver' (browser)
+    // are complete
+    private static boolean scanComplete(WebDriver driver) {
+        try {
+            JavascriptExecutor js = (JavascriptExecutor) driver;
+            String str = (String) js.executeScript(SCAN_COMPLETE_SCRIPT);
+            return str != null && !str.isEmpty();
+        }
+        catch (JavascriptException e) {
+            return false;
+        }
+    }
+
+
+    // Return number of engines in 'rawScanResults' that flagged the file
+    public static int countDetected(ST<String, String> rawScanResults) {
+        int detected = 0;
+        for (String engine : rawScanResults.keys())
+            if (new ScanResult(engine, rawScanResults.get(engine))
+                    .isMalicious())
+                detected++;
+        return detected;
+    }
+
+
+    // Narrow 'rawScanResults' down to 'engines' (if user entered --engine,
+    // -e and any of the engines was used) and convert the <engine, result>
+    // pairs into ScanResult[]
+    public static ScanResult[] selectResults(ST<String, String> rawScanResults,
+                                             EngineSelection engines) {
+
+        // If user entered --engine, -e
+        if (!engines.isAll()) {
+
+            // Was any user specified engine used
+            boolean engineFound = false;
+            for (String engine : rawScanResults.keys())
+                if (engines.contains(engine)) {
+                    engineFound = true;
+                    break;
+                }
+
+            // Remove all engine scans except scans with 'engines'
+            if (engineFound) {
+                String kept = removeEngines(engines, rawScanResults);
+
+                // Color print notification
+                String message = MESSAGE_PREFIX + kept + "\" engine"
+                        + (rawScanResults.size() > 1 ? "s were" : " was")
+                        + " found. Scanned with \"" + kept + "\".\n";
+                colorPrint(false, NORMAL_HIGHLIGHT, CYAN, message);
+            }
+
+            // If none of the user specified engines was used
+            else {
+                // Color print notification
+                String message = MESSAGE_PREFIX + engines + "\" engine"
+                        + (engines.size() > 1 ? "s were" : " was")
+                        + " not found. Scanned with all engines.\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            }
+        }
+
+        // Convert SymbolTable <engine, result> pairs into ScanResult[]
+        ScanResult[] scanResults = new ScanResult[rawScanResults.size()];
+        int index = 0;
+        for (String engine : rawScanResults.keys()) {
+            scanResults[index] = new ScanResult(engine,
+                                                rawScanResults.get(engine));
+            index++;
+        }
+
+        // Return engine scans
+        return scanResults;
+    }
 
-        // Color print notification
-        String message = MESSAGE_PREFIX + selectEngine + "\" engine was found."
-                + " Scanned with \"" + selectEngine + "\".\n";
-        colorPrint(false, NORMAL_HIGHLIGHT, CYAN, message);
+
+    // Return what creates a new 'backendName' backend (BROWSER_BACKEND or
+    // API_BACKEND talking to 'apiUrl' with 'apiKey' within 'quota'); ends
+    // program if the backend isn't known or has no API key
+    private static Supplier<ScanBackend> backends(String backendName,
+                                                  String apiUrl,
+                                                  String apiKey,
+                                                  QuotaScheduler quota) {
+
+        // Headless Chrome on the VirusTotal website
+        if (backendName.equalsIgnoreCase(BROWSER_BACKEND))
+            return () -> new BrowserBackend(new DriverSupervisor(
+                    recycleAfter, maxBrowserBytes, lean));
+
+        // VirusTotal REST API
+        if (backendName.equalsIgnoreCase(API_BACKEND) && !apiKey.isEmpty())
+            return () -> new ApiBackend(apiUrl, apiKey, waiter, quota,
+                                        maxUploadBytes);
+
+        // Color print error message
+        String message = MESSAGE_PREFIX + backendName + "\" is not a backend."
+                + " Please enter browser, or api with --api-key KEY.\n";
+        if (backendName.equalsIgnoreCase(API_BACKEND))
+            message = "\nThe api backend needs a VirusTotal API key. Please"
+                    + " enter --api-key KEY or set " + API_KEY_ENV + ".\n";
+        colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        StdOut.println();
+
+        // End program
+        System.exit(0);
+        return null;
+    }
+
+
+    // Return journal of a batch: 'resumeFile' to pick up an interrupted
+    // batch, else 'journalFile', else a new one in ~/.vt/journals; ends
+    // program if it can't be opened
+    private static Journal openJournal(String resumeFile, String journalFile) {
+        Path file = Journal.defaultFile();
+        if (!resumeFile.isEmpty())
+            file = Paths.get(resumeFile);
+        else if (!journalFile.isEmpty())
+            file = Paths.get(journalFile);
+
+        // Color print error message and end program
+        if (!resumeFile.isEmpty() && !Files.isRegularFile(file)) {
+            String message = MESSAGE_PREFIX + resumeFile + "\" is not a"
+                    + " journal. Please enter a journal of an earlier"
+                    + " batch.\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            StdOut.println();
+            System.exit(0);
+        }
+
+        try {
+            Journal journal = new Journal(file);
+
+            // Write the last records however the program ends (including
+            // Ctrl-C)
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+            String message = "\nJournal \"" + file + "\"";
+            if (!journal.files().isEmpty())
+                message += ": " + journal.countCompleted() + " of "
+                        + journal.files().size() + " files completed";
+            message += ". If the batch stops, resume it with --resume "
+                    + file + "\n";
+            colorPrint(false, BLACK, CYAN, message);
+            return journal;
+        }
+        catch (IOException e) {
+
+            // Color print error message
+            String message = "\nCould not open journal \"" + file + "\": "
+                    + e.getMessage() + ".\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            StdOut.println();
+
+            // End program
+            System.exit(0);
+        }
+        return null;
+    }
+
+
+    // Write last records of 'journal' and, if every file completed, delete
+    // it unless 'keep'; otherwise print how to resume the files left
+    private static void closeJournal(Journal journal, boolean keep) {
+        journal.close();
+        int left = journal.files().size() - journal.countCompleted();
+        if (left > 0) {
+            String message = "\n" + left + (left == 1 ? " file" : " files")
+                    + " didn't complete. Scan them again with --resume "
+                    + journal.getFile() + "\n";
+            colorPrint(false, BLACK, CYAN, message);
+        }
+        else if (!keep) {
+            try {
+                Files.deleteIfExists(journal.getFile());
+            }
+            catch (IOException e) {
+                // Left behind in ~/.vt/journals; harmless
+            }
+        }
+    }
+
+
+    // Scan files at 'absFilePaths' with 'hashes' on the daemon listening on
+    // 'socket', print each file's 'selectEngines' results as it finishes and
+    // keep them in 'store' and 'journal' (if not null); return
+    // SCAN_ERROR_STATUS if any file couldn't be scanned, else 0
+    private static int scanRemote(Path socket, List<String> absFilePaths,
+                                  List<String> hashes,
+                                  EngineSelection selectEngines,
+                                  ResultStore store, Journal journal) {
+        int[] status = new int[1];
+        try {
+            Daemon.scan(socket, absFilePaths, hashes,
+                        (absFilePath, sha256, rawScanResults, error) -> {
+
+                // Color print error message and go on with the others
+                if (error != null) {
+                    String message = "\nSCAN FAILED: \"" + absFilePath
+                            + "\": " + error + ".\n";
+                    colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                    status[0] = SCAN_ERROR_STATUS;
+                    return;
+                }
+
+                String message = "\nScanned \"" + absFilePath + "\""
+                        + " (daemon):\n";
+                colorPrint(false, BLACK, CYAN, message);
+                if (journal != null)
+                    journal.completed(absFilePath, sha256, rawScanResults);
+                writer.write(absFilePath, sha256,
+                             selectResults(rawScanResults, selectEngines));
+                if (store != null)
+                    store.add(absFilePath, sha256, rawScanResults);
+            });
+        }
+
+        // Daemon stopped while scanning
+        catch (IOException e) {
+            scanError(null, new ScanException("Lost daemon on \"" + socket
+                                                      + "\"", e));
+        }
+        return status[0];
+    }
+
+
+    // Scan each file created or modified in folder 'watchDir' once it was
+    // unchanged for 'settleSeconds', printing cached 'selectEngines' results
+    // right away and handing the rest to one scheduler from 'schedulers'
+    // whose backends stay up; runs until the program is stopped
+    private static void watch(String watchDir, int settleSeconds,
+                              Supplier<ScanScheduler> schedulers,
+                              ResultCache cache,
+                              EngineSelection selectEngines) {
+        ScanScheduler scheduler = null;
+        try (DropWatcher watcher = new DropWatcher(Paths.get(watchDir),
+                                                   settleSeconds * 1000L)) {
+
+            // Start backends once the folder is watched; files landing
+            // meanwhile are queued by the watch service
+            scheduler = schedulers.get();
+            String message = "\nWatching \"" + watchDir + "\" for new files."
+                    + " Press Ctrl-C to stop.\n";
+            colorPrint(false, BLACK, CYAN, message);
+
+            while (true) {
+                for (String absFilePath : watcher.take()) {
+
+                    // Skip files -f wouldn't accept either
+                    if (!isAccessibleFile(Paths.get(absFilePath))) {
+                        message = MESSAGE_PREFIX + absFilePath + "\" is not"
+                                + " an accessible file. Skipped.\n";
+                        colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT,
+                                   message);
+                        continue;
+                    }
+
+                    // Listed or cached results (e.g. same file dropped
+                    // again), printed between the workers' results
+                    String sha256 = hashFile(absFilePath);
+                    ST<String, String> rawScanResults = knownResults(cache,
+                                                                     sha256);
+                    if (rawScanResults != null)
+                        scheduler.printKnown(absFilePath, sha256,
+                                             knownSource(sha256),
+                                             rawScanResults);
+
+                    // Next free worker scans it
+                    else
+                        scheduler.submit(absFilePath, sha256);
+                }
+            }
+        }
+
+        // Color print error message
+        catch (IOException e) {
+            String message = MESSAGE_PREFIX + watchDir + "\" can't be"
+                    + " watched: " + e.getMessage() + ".\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Let workers finish what was queued
+        if (scheduler != null)
+            scheduler.finish();
+    }
+
+
+    // Print how many files of 'store' were flagged and which engines
+    // flagged the most of them
+    private static void printSummary(ResultStore store) {
+        String message = "\nSummary: " + store.size() + " files scanned, "
+                + store.countFlagged(1) + " flagged by at least one engine.\n";
+
+        // Engines by number of files flagged, most first
+        int[] detections = store.detectionsByEngine();
+        List<Integer> engines = new ArrayList<Integer>();
+        for (int engine = 0; engine < detections.length; engine++)
+            if (detections[engine] > 0)
+                engines.add(engine);
+        engines.sort((a, b) -> detections[b] - detections[a]);
+        for (int i = 0; i < Math.min(SUMMARY_ENGINES, engines.size()); i++)
+            message += String.format("  %-20s %d%n",
+                                     store.getEngine(engines.get(i)),
+                                     detections[engines.get(i)]);
+        colorPrint(false, BLACK, CYAN, message);
+    }
+
+
+    // Print latency of each scan phase if 'print' and write it as a
+    // Prometheus text file to 'metricsFile' if not empty
+    private static void reportMetrics(boolean print, String metricsFile) {
+        if (print) {
+            String message = "\nLatency by phase:\n" + Metrics.summary();
+            colorPrint(false, BLACK, CYAN, message);
+        }
+        if (!metricsFile.isEmpty()) {
+            try {
+                Metrics.write(Paths.get(metricsFile));
+            }
+            catch (IOException e) {
+                String message = "\nCould not write metrics: "
+                        + e.getMessage() + ".\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            }
+        }
     }
 
 
@@ -333,178 +1732,511 @@ public class VT {
     // Runs everything
     public static void main(String[] args) {
 
+        // Choose output format first so messages go to the right stream
+        String format = cmdLineArg(args, "--format", "--format");
+        if (format.isEmpty())
+            format = ResultWriter.TABLE;
+        writer = new ResultWriter(format);
+
         // Color print logo
         printLogo(BLUE);
 
         // Check help requested
         help(args, GREEN);
 
-        // Get file and engine command line arguments
+        // Get file, batch and engine command line arguments
         String filePath = cmdLineArg(args, "--file", "-f");
-        String selectEngine = cmdLineArg(args, "--engine", "-e");
-        boolean engineFound = false;
+        String batchList = cmdLineArg(args, "--files", "-b");
+        String dirPath = cmdLineArg(args, "--dir", "--dir");
+        String watchDir = cmdLineArg(args, "--watch", "--watch");
+        EngineSelection selectEngines = EngineSelection.parse(
+                cmdLineArg(args, "--engine", "-e"));
+        int workers = intArg(args, "--workers", "-w", 1, 1);
+        int maxAge = intArg(args, "--max-age", "--max-age",
+                            (int) ResultCache.DEFAULT_MAX_AGE_SECONDS, 0);
+        int timeout = intArg(args, "--timeout", "--timeout",
+                             DEFAULT_TIMEOUT_SECONDS, 1);
+        int deadline = intArg(args, "--deadline", "--deadline", 0, 0);
+        int stopAfter = intArg(args, "--stop-after-detections",
+                               "--stop-after-detections", 0, 1);
+        boolean stream = flagEntered(args, "--stream") || stopAfter > 0;
+        int status = 0;
+
+        // Scan backend, defaulting to the browser
+        String backendName = cmdLineArg(args, "--backend", "--backend");
+        String apiKey = cmdLineArg(args, "--api-key", "--api-key");
+        String apiUrl = cmdLineArg(args, "--api-url", "--api-url");
+        if (backendName.isEmpty())
+            backendName = BROWSER_BACKEND;
+        if (apiKey.isEmpty() && System.getenv(API_KEY_ENV) != null)
+            apiKey = System.getenv(API_KEY_ENV);
+        if (apiUrl.isEmpty())
+            apiUrl = ApiBackend.DEFAULT_URL;
+
+        // API requests of every worker share one per-minute quota, and
+        // every run with the same key shares the per-day quota
+        QuotaScheduler quota = null;
+        if (backendName.equalsIgnoreCase(API_BACKEND))
+            quota = new QuotaScheduler(
+                    intArg(args, "--quota-minute", "--quota-minute",
+                           QuotaScheduler.DEFAULT_PER_MINUTE, 1),
+                    intArg(args, "--quota-day", "--quota-day",
+                           QuotaScheduler.DEFAULT_PER_DAY, 1),
+                    DayQuota.defaultFile(apiKey));
+        // Files over the size ceiling are looked up by hash only
+        maxUploadBytes = FileUpload.megabytes(intArg(
+                args, "--max-upload", "--max-upload",
+                FileUpload.DEFAULT_MAX_UPLOAD_MB, 1));
+        // Browsers are started again after so many scans or once they grow
+        // too large
+        recycleAfter = intArg(args, "--recycle-after", "--recycle-after",
+                              DriverSupervisor.DEFAULT_RECYCLE_AFTER, 0);
+        maxBrowserBytes = DriverSupervisor.megabytes(intArg(
+                args, "--browser-mb", "--browser-mb",
+                DriverSupervisor.DEFAULT_MAX_MB, 0));
+        lean = flagEntered(args, "--lean");
+        Supplier<ScanBackend> backends = backends(backendName, apiUrl, apiKey,
+                                                  quota);
+
+        // Check output format
+        if (!ResultWriter.isFormat(format)) {
 
-        // If user entered --file, -f
-        if (!filePath.isEmpty()) {
+            // Color print error message
+            String message = MESSAGE_PREFIX + format + "\" is not a format."
+                    + " Please enter table, json, jsonl or csv.\n";
+            colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+            StdOut.println();
 
-            // Check if valid file
-            String absFilePath = fileExists(filePath);
+            // End program
+            System.exit(0);
+        }
 
-            // If valid file
-            // Start Chrome WebDriver
-            //      Locate ChromeDriver binary
-            System.setProperty("webdriver.chrome.driver",
-                               ".\\chromedriver_win32\\chromedriver.exe");
-
-            // Browsing options
-            ChromeOptions options = new ChromeOptions();
-            options.setHeadless(true);
-            //      Logging suppression
-            options.setLogLevel(ChromeDriverLogLevel.OFF);
-            Logger.getLogger("org.openqa.selenium").setLevel(Level.OFF);
-            WebDriver driver = new ChromeDriver(options);
-
-            // Go to VirusTotal
-            driver.get("https://www.virustotal.com/gui/home/upload");
-
-            // Clear terminal with colored logo and notification
-            printLogo(BLUE);
-            String message = "\nScanning \"" + filePath + "\"...\n";
-            colorPrint(false, BLACK, CYAN, message);
+        // Bound every wait on the VirusTotal page
+        waiter = new Waiter(timeout, deadline);
+
+        // Files whose hash is listed get a verdict without a scan
+        String allowlistFile = cmdLineArg(args, "--allowlist", "--allowlist");
+        String denylistFile = cmdLineArg(args, "--denylist", "--denylist");
+        if (!allowlistFile.isEmpty())
+            allowlist = openIndex(allowlistFile, "--allowlist");
+        if (!denylistFile.isEmpty())
+            denylist = openIndex(denylistFile, "--denylist");
+
+        // On-disk cache of earlier scans keyed by file hash
+        ResultCache cache = new ResultCache(
+                ResultCache.defaultDirectory(), maxAge,
+                intArg(args, "--cache-entries", "--cache-entries",
+                       ResultCache.DEFAULT_MAX_ENTRIES, 1));
+
+        // Per-phase latency, reported however the program ends (including
+        // Ctrl-C in --watch and --daemon modes)
+        boolean printMetrics = flagEntered(args, "--metrics");
+        String metricsFile = cmdLineArg(args, "--metrics-file",
+                                        "--metrics-file");
+        if (printMetrics || !metricsFile.isEmpty())
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> reportMetrics(printMetrics, metricsFile)));
+        int metricsPort = intArg(args, "--metrics-port", "--metrics-port", 0,
+                                 1);
+        if (metricsPort > 0) {
+            try {
+                Metrics.serve(metricsPort);
+            }
+            catch (IOException e) {
 
-            // Find 'Choose file' button
-            //      Long messy JavaScript code to find the button
-            String script = "return document.querySelector('vt-ui-shell"
-                    + " div#view-container home-view')"
-                    + ".shadowRoot.querySelector('div.wrapper"
-                    + " div.omnibar vt-ui-selector#section"
-                    + " div.vt-selected vt-ui-main-upload-form#uploadForm')"
-                    + ".shadowRoot"
-                    + ".querySelector('div.wrapper input#fileSelector')";
-            WebElement fileUpload = findElement(driver, script, false);
-
-            // Upload file
-            fileUpload.sendKeys(absFilePath);
-
-            // Check if the file has been uploaded to VirusTotal before
-            //      If file is new to VirusTotal, click 'Confirm upload' button
-            //          Long messy JavaScript code to find + click the button
-            String newFileScript = "document.querySelector('vt-ui-shell')"
-                    + ".shadowRoot.querySelector('vt-ui-dialog#uploadModal')"
-                    + ".getElementsByClassName('content upload-dialog')[0]"
-                    + ".querySelector('vt-ui-main-upload-form#uploadMoldaForm')"
-                    + ".shadowRoot.querySelector('div.wrapper"
-                    + " vt-ui-button#confirmUpload').click();";
-            findElement(driver, newFileScript, true);
-
-            // Check if all engine scans are complete
-            //      Long messy JavaScript code to find text for scan completion
-            String scanCompleteScript
-                    = "return document.querySelector('vt-ui-shell"
-                    + " div#view-container file-view')"
-                    + ".shadowRoot"
-                    + ".querySelector('vt-ui-main-generic-report#report"
-                    + " vt-ui-file-card').shadowRoot"
-                    + ".querySelector('vt-ui-generic-card div"
-                    + " div.detections span div p').innerText;";
-
-            //      If/wait until all engine scans are complete
-            if (foundString(driver, scanCompleteScript)) {
-                //  Long messy JavaScript code to find + form Array of
-                //  each individual engine scan HTML element
-                String resultScript
-                        = "return Array.from(document.querySelector("
-                        + "'vt-ui-shell div#view-container file-view')"
-                        + ".shadowRoot.querySelector('"
-                        + "vt-ui-main-generic-report#report span.tab-slot"
-                        + " vt-ui-detections-list#detectionsList')"
-                        + ".shadowRoot.querySelector('div#detections')"
-                        + ".querySelectorAll('div.detection'));";
-
-                // Compile list of HTML elements for each engine scan
-                List<WebElement> detectionElements = findResult(driver,
-                                                                resultScript);
-
-                // SymbolTable for <engine, result> pairs
-                // https://introcs.cs.princeton.edu/java/44st/
-                // https://introcs.cs.princeton.edu/java/code/javadoc/ST.html
-                ST<String, String> rawScanResults = new ST<String, String>();
-
-                // Iterate through list of each engine scan HTML elements
-                for (int i = 0; i < detectionElements.size(); i++) {
-
-                    // Individual engine name
-                    String engine = "";
-
-                    // Following try-catch needed because of
-                    // org.openqa.selenium.StaleElementReferenceException
-                    //      Get engine name from engine scan element
-                    try {
-                        engine = detectionElements.get(i).getText().split("\n")[0];
-                    }
+                // Color print error message
+                String message = "\nCould not serve metrics on port "
+                        + metricsPort + ": " + e.getMessage() + ".\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                StdOut.println();
 
-                    //      Get engine name from engine scan element again
-                    catch (StaleElementReferenceException e) {
-                        engine = detectionElements.get(i).getText().split("\n")[0];
-                    }
+                // End program
+                System.exit(0);
+            }
+        }
 
-                    // Individual result from engine scan
-                    String result = "";
+        // Record each finished report as a --replay fixture
+        if (!cmdLineArg(args, "--record", "--record").isEmpty())
+            recordDir = Paths.get(cmdLineArg(args, "--record", "--record"));
+
+        // Serve recorded reports in place of VirusTotal and point the
+        // browser at them; on its own, --replay just serves until stopped
+        String replayDir = cmdLineArg(args, "--replay", "--replay");
+        if (!replayDir.isEmpty()) {
+            ReplayServer replay = new ReplayServer(
+                    Paths.get(replayDir),
+                    intArg(args, "--replay-delay", "--replay-delay", 0, 0),
+                    intArg(args, "--render-delay", "--render-delay", 0, 0));
+            int replayPort = intArg(args, "--replay-port", "--replay-port", 0,
+                                    0);
+            try {
+                baseUrl = "http://127.0.0.1:" + replay.start(replayPort);
+            }
+            catch (IOException e) {
 
-                    // Get result from engine scan element
-                    try {
-                        result = detectionElements.get(i).getText().split("\n")[1];
-                    }
+                // Color print error message
+                String message = "\nCould not replay \"" + replayDir + "\": "
+                        + e.getMessage() + ".\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                StdOut.println();
 
-                    // Continue if no result in engine scan element
-                    catch (ArrayIndexOutOfBoundsException e) {
-                        continue;
+                // End program
+                System.exit(0);
+            }
+
+            if (filePath.isEmpty() && batchList.isEmpty() && dirPath.isEmpty()
+                    && watchDir.isEmpty()) {
+                String message = "\nReplaying \"" + replayDir + "\" at "
+                        + baseUrl + ". Press Ctrl-C to stop.\n";
+                colorPrint(false, BLACK, CYAN, message);
+                try {
+                    Thread.currentThread().join();
+                }
+                catch (InterruptedException e) {
+                    System.exit(0);
+                }
+            }
+        }
+
+        // Browser talks to a different VirusTotal, e.g. another vt --replay
+        else if (!cmdLineArg(args, "--base-url", "--base-url").isEmpty()) {
+            baseUrl = cmdLineArg(args, "--base-url", "--base-url");
+            if (baseUrl.endsWith("/"))
+                baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+
+        // Serve other vt invocations until stopped
+        Path socket = Daemon.defaultSocket();
+        if (!cmdLineArg(args, "--socket", "--socket").isEmpty())
+            socket = Paths.get(cmdLineArg(args, "--socket", "--socket"));
+        if (flagEntered(args, "--daemon")) {
+            try {
+                Daemon.serve(socket, workers, backends, cache);
+            }
+            catch (IOException e) {
+
+                // Color print error message
+                String message = "\nCould not start daemon on \"" + socket
+                        + "\": " + e.getMessage() + ".\n";
+                colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                StdOut.println();
+
+                // End program
+                System.exit(0);
+            }
+        }
+
+        // Send files to a running daemon instead of starting backends;
+        // streaming, recording, other sites and backend options need a
+        // backend of their own
+        boolean backendOptions = false;
+        for (String option : BACKEND_OPTIONS)
+            backendOptions |= flagEntered(args, option);
+        boolean useDaemon = !stream && !flagEntered(args, "--no-daemon")
+                && !backendOptions && recordDir == null
+                && baseUrl.equals(DEFAULT_BASE_URL)
+                && Daemon.isRunning(socket);
+
+        // Batch that was interrupted, to pick up where it stopped
+        String resumeFile = cmdLineArg(args, "--resume", "--resume");
+        String journalFile = cmdLineArg(args, "--journal", "--journal");
+
+        // If user entered --files, -b, --dir or --resume
+        if (!batchList.isEmpty() || !dirPath.isEmpty()
+                || !resumeFile.isEmpty()) {
+
+            // Every file's progress is journaled so the batch can be
+            // resumed; a journal nobody named is deleted once every file
+            // completed
+            Journal journal = openJournal(resumeFile, journalFile);
+            boolean keepJournal = !resumeFile.isEmpty()
+                    || !journalFile.isEmpty();
+
+            // Files to scan and, for --dir, their hashes and what was
+            // scanned before
+            List<String> absFilePaths;
+            String[] hashes = null;
+            ST<String, BasicFileAttributes> tree = null;
+            Manifest previous = null;
+            Manifest manifest = null;
+
+            // Every file under --dir; only new or changed ones are scanned
+            if (!dirPath.isEmpty()) {
+                tree = walkDirectory(dirPath);
+                Path manifestFile = Manifest.defaultFile(Paths.get(dirPath));
+                if (!cmdLineArg(args, "--manifest", "--manifest").isEmpty())
+                    manifestFile = Paths.get(cmdLineArg(args, "--manifest",
+                                                        "--manifest"));
+
+                // --max-age 0 forces a fresh scan of every file
+                previous = maxAge > 0 ? Manifest.load(manifestFile)
+                        : new Manifest(manifestFile);
+                manifest = new Manifest(manifestFile);
+                absFilePaths = changedFiles(tree, previous, manifest);
+                hashes = DirectoryWalker.sha256(absFilePaths);
+
+                // Same content under a new last-modified time (e.g. copied
+                // again) needs no scan either
+                List<String> changed = new ArrayList<String>();
+                List<String> changedHashes = new ArrayList<String>();
+                for (int i = 0; i < hashes.length; i++) {
+                    String absFilePath = absFilePaths.get(i);
+                    if (!hashes[i].isEmpty()
+                            && hashes[i].equals(previous.sha256(absFilePath)))
+                        manifest.put(absFilePath, tree.get(absFilePath),
+                                     hashes[i]);
+                    else {
+                        changed.add(absFilePath);
+                        changedHashes.add(hashes[i]);
                     }
+                }
+                absFilePaths = changed;
+                hashes = changedHashes.toArray(new String[0]);
 
-                    // Put <engine, result> pair into SymbolTable
-                    rawScanResults.put(engine, result);
+                String message = "\n" + absFilePaths.size() + " of "
+                        + tree.size() + " files in \"" + dirPath + "\" are new"
+                        + " or changed.\n";
+                colorPrint(false, BLACK, CYAN, message);
+            }
+
+            // Check which files are valid
+            else if (!batchList.isEmpty())
+                absFilePaths = batchFiles(batchList);
 
-                    // If user entered --engine, -e
-                    if (!selectEngine.isEmpty()) {
+            // Files of the interrupted batch, hashed again so a file
+            // changed since is scanned again rather than answered from the
+            // journal, cache or lists under its old hash
+            else {
+                absFilePaths = journal.files();
+                hashes = DirectoryWalker.sha256(absFilePaths);
+            }
 
-                        // If engine was used
-                        if (engine.equalsIgnoreCase(selectEngine)) {
+            // Every file's results, kept compactly for --dir and --summary
+            // only; other batches print each file's results and forget them
+            boolean summary = flagEntered(args, "--summary");
+            ResultStore store = null;
+            if (summary || manifest != null)
+                store = new ResultStore(flagEntered(args, "--off-heap"));
+
+            // Browsers are only started if some file isn't cached
+            ScanScheduler scheduler = null;
+            List<String> daemonFiles = new ArrayList<String>();
+            List<String> daemonHashes = new ArrayList<String>();
+
+            // Print journaled and cached results right away; queue the
+            // rest, and each worker prints a file's results as soon as it
+            // finishes
+            for (int i = 0; i < absFilePaths.size(); i++) {
+                String absFilePath = absFilePaths.get(i);
+                String sha256 = hashes == null ? hashFile(absFilePath)
+                        : hashes[i];
+
+                // Completed before the batch was interrupted, else listed
+                // or cached
+                String source = JOURNALED;
+                ST<String, String> rawScanResults = journal.results(
+                        absFilePath, sha256);
+                if (rawScanResults == null) {
+                    source = knownSource(sha256);
+                    rawScanResults = knownResults(cache, sha256);
+                    if (rawScanResults != null)
+                        journal.completed(absFilePath, sha256,
+                                          rawScanResults);
+                }
 
-                            engineFound = true;
-                            // Remove all engine scans except scan with selectEngine
-                            removeEngines(selectEngine, rawScanResults);
-                            break;
-                        }
+                // Results that need no scan; once workers run, printed
+                // between theirs
+                if (rawScanResults != null) {
+                    if (stopAfter > 0
+                            && countDetected(rawScanResults) >= stopAfter
+                            || rawScanResults.contains(DENYLIST_ENGINE))
+                        status = DETECTED_STATUS;
+                    if (scheduler != null)
+                        scheduler.printKnown(absFilePath, sha256, source,
+                                             rawScanResults);
+                    else {
+                        String message = "\nScanned \"" + absFilePath
+                                + "\" (" + source + "):\n";
+                        colorPrint(false, BLACK, CYAN, message);
+                        writer.write(absFilePath, sha256,
+                                     selectResults(rawScanResults,
+                                                   selectEngines));
+                        if (store != null)
+                            store.add(absFilePath, sha256, rawScanResults);
                     }
                 }
 
-                // If user specified engine was not used
-                if (!selectEngine.isEmpty() && !engineFound) {
-                    // Color print notification
-                    message = MESSAGE_PREFIX + selectEngine + "\" engine"
-                            + "\" was not found. Scanned with all engines."
-                            + "\n";
-                    colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                // Leave the rest of the batch to the daemon's warm backends
+                else if (useDaemon) {
+                    daemonFiles.add(absFilePath);
+                    daemonHashes.add(sha256);
+                    journal.queued(absFilePath, sha256);
                 }
 
-                // Convert SymbolTable <engine, result> pairs into ScanResult[]
-                ScanResult[] scanResults = new ScanResult[rawScanResults.size()];
-                int index = 0;
-                for (String engine : rawScanResults.keys()) {
-                    scanResults[index] = new ScanResult(engine,
-                                                        rawScanResults.get(engine));
-                    index++;
+                // Start 'workers' Chrome WebDrivers reused for the rest of
+                // the batch
+                else {
+                    if (scheduler == null)
+                        scheduler = new ScanScheduler(workers, backends,
+                                                      selectEngines,
+                                                      cache, stream, stopAfter,
+                                                      writer, store, journal);
+                    scheduler.submit(absFilePath, sha256);
                 }
+            }
 
-                // Print out engine scan results in tabular format
-                ScanResult.multiPrint(scanResults, 2);
+            // Print daemon's results as each file finishes
+            if (!daemonFiles.isEmpty())
+                status = Math.max(status, scanRemote(socket, daemonFiles,
+                                                     daemonHashes,
+                                                     selectEngines, store,
+                                                     journal));
+
+            // Wait for workers to finish and end their WebDrivers
+            ScanTimeoutException deadlineHit = null;
+            if (scheduler != null) {
+                scheduler.finish();
+                deadlineHit = scheduler.getDeadlineHit();
+                if (scheduler.isDetected())
+                    status = DETECTED_STATUS;
+                if (scheduler.isFailed())
+                    status = SCAN_ERROR_STATUS;
             }
 
-            // End WebDriver
-            driver.quit();
+            // Remember what was scanned so the next --dir run skips it;
+            // files that failed stay out and are submitted again
+            if (manifest != null) {
+                for (int i = 0; i < store.size(); i++)
+                    manifest.put(store.getFile(i),
+                                 tree.get(store.getFile(i)),
+                                 store.getSha256(i));
+                try {
+                    manifest.save();
+                }
+                catch (IOException e) {
+                    String message = "\nCould not save manifest: "
+                            + e.getMessage() + ".\n";
+                    colorPrint(false, ERROR_HIGHLIGHT, ERROR_TEXT, message);
+                }
+            }
+
+            // Detections across the whole batch
+            if (summary)
+                printSummary(store);
+
+            // Say how to retry files that didn't complete (failed, or left
+            // by the deadline); a finished batch needs no journal of its own
+            closeJournal(journal, keepJournal);
+
+            // End program if the deadline stopped the batch
+            if (deadlineHit != null)
+                timeout(null, deadlineHit);
         }
 
-        // If user didn't enter --file, -f
+        // If user entered --watch
+        else if (!watchDir.isEmpty())
+            watch(watchDir, intArg(args, "--settle", "--settle",
+                                   DEFAULT_SETTLE_SECONDS, 0),
+                  () -> new ScanScheduler(workers, backends, selectEngines,
+                                          cache, stream, stopAfter, writer,
+                                          null, null),
+                  cache, selectEngines);
+
+        // If user entered --file, -f
+        else if (!filePath.isEmpty()) {
+
+            // Check if valid file
+            String absFilePath = fileExists(filePath);
+
+            // If valid file
+            // Check hash lists and cache of earlier scans
+            String sha256 = hashFile(absFilePath);
+            ST<String, String> rawScanResults = knownResults(cache, sha256);
+            boolean streamed = false;
+
+            // Listed or cached results need no browser
+            if (rawScanResults != null) {
+                String source = knownSource(sha256);
+                String message = "\nScanned \"" + filePath + "\" (" + source
+                        + "):\n";
+                colorPrint(false, BLACK, CYAN, message);
+                if (source.equals(DENYLIST))
+                    status = DETECTED_STATUS;
+            }
+
+            // Daemon prints the results with its warm backend
+            else if (useDaemon) {
+                status = scanRemote(socket, Collections.singletonList(
+                                            absFilePath),
+                                    Collections.singletonList(sha256),
+                                    selectEngines, null, null);
+                writer.close();
+                if (writer.isTable())
+                    StdOut.println();
+                System.exit(status);
+            }
+
+            // Start backend (e.g. Chrome WebDriver) and scan
+            else {
+                ScanBackend backend = backends.get();
+
+                // Clear terminal with colored logo and notification
+                printLogo(BLUE);
+                String message = "\nScanning \"" + filePath + "\"...\n";
+                colorPrint(false, BLACK, CYAN, message);
+
+                // Scan, printing each engine result as it arrives if
+                // streaming
+                long started = System.nanoTime();
+                try {
+                    if (stream)
+                        rawScanResults = backend.stream(
+                                absFilePath, sha256, stopAfter, selectEngines,
+                                scanResult -> {
+                                    if (writer.isTable()
+                                            && selectEngines.contains(
+                                            scanResult.getEngine()))
+                                        ScanResult.rowPrint(scanResult);
+                                });
+                    else
+                        rawScanResults = backend.scan(absFilePath, sha256,
+                                                      selectEngines);
+                    Metrics.record(Metrics.SCAN, started);
+                }
+                catch (ScanTimeoutException e) {
+                    timeout(backend, e);
+                }
+                catch (ScanException e) {
+                    scanError(backend, e);
+                }
+                streamed = stream;
+
+                // Remember complete results for next time; a scan stopped
+                // after 'stopAfter' detections or once the selected engines
+                // finished is incomplete
+                if ((stopAfter <= 0
+                        || countDetected(rawScanResults) < stopAfter)
+                        && selectEngines.isAll())
+                    cache.put(sha256, rawScanResults);
+
+                // End backend
+                backend.close();
+            }
+
+            // Enough engines flagged the file
+            if (stopAfter > 0 && countDetected(rawScanResults) >= stopAfter)
+                status = DETECTED_STATUS;
+
+            // Print out engine scan results in tabular format unless they
+            // were already streamed; machine-readable formats always get
+            // the file's record
+            ScanResult[] scanResults = selectResults(rawScanResults,
+                                                     selectEngines);
+            if (!streamed || !writer.isTable())
+                writer.write(absFilePath, sha256, scanResults);
+        }
+
+        // If user didn't enter --file, -f or --files, -b
         else {
 
             // Color print error message
@@ -516,9 +2248,18 @@ public class VT {
             help(new String[] { "-h" }, GREEN);
         }
 
-        StdOut.println();
+        // Report API requests, queue depth and time spent waiting for quota
+        if (quota != null) {
+            String message = "\n" + quota.report() + "\n";
+            colorPrint(false, BLACK, CYAN, message);
+        }
+
+        // Finish machine-readable output
+        writer.close();
+        if (writer.isTable())
+            StdOut.println();
 
         // End program
-        System.exit(0);
+        System.exit(status);
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Waits for a condition on the VirusTotal page by polling it with
+ * exponential backoff and jitter instead of spinning, so a scan that takes
+ * minutes doesn't pin a CPU core or flood the DevTools channel. Every wait
+ * is bounded by a per-phase timeout and by one global deadline for the run.
+ */
+
+// Import libraries
+// concurrent - jitter
+// function - condition to poll
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+
+public class Waiter {
+
+    // Constants
+    private static final long INITIAL_DELAY_MILLIS = 100;
+    private static final long MAX_DELAY_MILLIS = 5000;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // Instance variables
+    private final long phaseTimeoutMillis;  // Longest a single wait may take
+    private final long deadlineNanos;       // System.nanoTime() to give up at
+    private final boolean hasDeadline;      // Is there a global deadline
+
+    // Specified constructor bounds each wait by 'phaseTimeoutSeconds' and
+    // all waits together by 'deadlineSeconds' from now (0 for no deadline)
+    public Waiter(long phaseTimeoutSeconds, long deadlineSeconds) {
+        this.phaseTimeoutMillis = phaseTimeoutSeconds * 1000;
+        this.hasDeadline = deadlineSeconds > 0;
+        this.deadlineNanos = System.nanoTime()
+                + deadlineSeconds * 1000 * NANOS_PER_MILLI;
+    }
+
+    // Return first non-null value returned by 'poll' within the per-phase
+    // timeout; throw ScanTimeoutException naming 'phase' otherwise
+    public <T> T await(String phase, Supplier<T> poll) {
+        return await(phase, phaseTimeoutMillis, poll);
+    }
+
+    // Return first non-null value returned by 'poll' within
+    // 'timeoutMillis' (and the global deadline); throw ScanTimeoutException
+    // naming 'phase' otherwise
+    public <T> T await(String phase, long timeoutMillis, Supplier<T> poll) {
+        return await(phase, timeoutMillis, 0, poll);
+    }
+
+    // Return first non-null value returned by 'poll', called at most once
+    // every 'intervalMillis' (e.g. so polls stay within an API quota),
+    // within the per-phase timeout; throw ScanTimeoutException naming
+    // 'phase' otherwise
+    public <T> T awaitEvery(String phase, long intervalMillis,
+                            Supplier<T> poll) {
+        return await(phase, phaseTimeoutMillis, intervalMillis, poll);
+    }
+
+    // Return milliseconds a wait started now may take: the per-phase
+    // timeout, or less if the global deadline comes first
+    public long remainingMillis() {
+        if (!hasDeadline)
+            return phaseTimeoutMillis;
+        long untilDeadline = (deadlineNanos - System.nanoTime())
+                / NANOS_PER_MILLI;
+        return Math.max(0, Math.min(phaseTimeoutMillis, untilDeadline));
+    }
+
+    // Return whether the global deadline has passed
+    public boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    // Return first non-null value returned by 'poll', called at most once
+    // every 'intervalMillis', within 'timeoutMillis' (and the global
+    // deadline); throw ScanTimeoutException naming 'phase' otherwise
+    private <T> T await(String phase, long timeoutMillis, long intervalMillis,
+                        Supplier<T> poll) {
+
+        // When this wait times out
+        long phaseEndNanos = System.nanoTime()
+                + Math.min(timeoutMillis, phaseTimeoutMillis) * NANOS_PER_MILLI;
+        long delay = Math.max(INITIAL_DELAY_MILLIS, intervalMillis);
+        long maxDelay = Math.max(MAX_DELAY_MILLIS, intervalMillis);
+
+        while (true) {
+
+            // Condition met
+            T value = poll.get();
+            if (value != null)
+                return value;
+
+            // Out of time
+            long now = System.nanoTime();
+            if (hasDeadline && now - deadlineNanos >= 0)
+                throw new ScanTimeoutException(phase, true);
+            if (now - phaseEndNanos >= 0)
+                throw new ScanTimeoutException(phase, false);
+
+            // Sleep a random time between half and all of 'delay' so
+            // concurrent waits spread out, but no less than the interval
+            // and never past the end of the wait
+            long remaining = (phaseEndNanos - now) / NANOS_PER_MILLI;
+            if (hasDeadline)
+                remaining = Math.min(remaining,
+                                     (deadlineNanos - now) / NANOS_PER_MILLI);
+            long sleep = Math.max(intervalMillis, delay / 2
+                    + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            try {
+                Thread.sleep(Math.max(1, Math.min(sleep, remaining)));
+            }
+            // Interrupted waits stop the run like the global deadline
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ScanTimeoutException(phase, true);
+            }
+
+            // Back off exponentially up to MAX_DELAY_MILLIS (or the
+            // interval, if longer)
+            delay = Math.min(delay * 2, maxDelay);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * One whole scan of a known file through ApiBackend, from the hash lookup
+ * request to the ScanResult[] that gets printed, against a stand-in for
+ * the VirusTotal API on localhost that answers with a fixed report.
+ * Measures vt's own overhead (HTTP, JSON parsing, quota scheduling, result
+ * building), not VirusTotal's.
+ */
+
+package vt.bench;
+
+// Import libraries
+// jmh - benchmark harness
+// httpserver - stand-in API server
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ApiScanBenchmark {
+
+    // Constants
+    private static final String SHA256
+            = "275a021bbfb6489e54d471899f7db9d1663fc695ec2fe2a2c4538aabf651fd0f";
+    private static final int NO_QUOTA = 1000000000;
+
+    // Number of engines in the report
+    @Param({ "70", "1000", "100000" })
+    public int count;
+
+    private HttpServer server;      // Stand-in VirusTotal API
+    private Object backend;         // ApiBackend talking to 'server'
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        byte[] report = report(new Detections(count))
+                .getBytes(StandardCharsets.UTF_8);
+
+        // Answer every request with the report; without TCP_NODELAY the
+        // stand-in's separate header and body writes stall on delayed ACKs
+        // and every request costs an extra ~40 ms that VirusTotal wouldn't
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type",
+                                              "application/json");
+            exchange.sendResponseHeaders(200, report.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(report);
+            }
+        });
+        server.start();
+
+        String url = "http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort();
+        Object waiter = (Object) Vt.NEW_WAITER.invokeExact(60L, 0L);
+        Object quota = (Object) Vt.NEW_QUOTA.invokeExact(NO_QUOTA, NO_QUOTA);
+        backend = (Object) Vt.NEW_API_BACKEND.invokeExact(url, "bench",
+                                                          waiter, quota);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    // Look up the report and build what would be printed
+    @Benchmark
+    public Object[] scan() throws Throwable {
+        Object st = (Object) Vt.API_SCAN.invokeExact(backend, "bench.exe",
+                                                     SHA256, Vt.ALL_ENGINES);
+        return (Object[]) Vt.SELECT_RESULTS.invokeExact(st, Vt.ALL_ENGINES);
+    }
+
+    // Return /files/{sha256} response holding 'detections'
+    private static String report(Detections detections) {
+        StringBuilder json = new StringBuilder(
+                "{\"data\":{\"attributes\":{\"last_analysis_results\":{");
+        for (int i = 0; i < detections.engines.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append('"').append(detections.engines[i]).append("\":")
+                .append(engineResult(detections.verdicts[i]));
+        }
+        return json.append("}}}}").toString();
+    }
+
+    // Return API {category, result} object the website shows as 'verdict'
+    private static String engineResult(String verdict) {
+        switch (verdict) {
+            case "Undetected":
+                return "{\"category\":\"undetected\",\"result\":null}";
+            case "Timeout":
+                return "{\"category\":\"timeout\",\"result\":null}";
+            case "Confirmed timeout":
+                return "{\"category\":\"confirmed-timeout\",\"result\":null}";
+            case "Unable to process file type":
+                return "{\"category\":\"type-unsupported\",\"result\":null}";
+            case "":
+                return "{\"category\":\"failure\",\"result\":null}";
+            default:
+                return "{\"category\":\"malicious\",\"result\":\"" + verdict
+                        + "\"}";
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Checks ApiBackend against a stand-in for the VirusTotal API on localhost,
+ * one scenario per API key the stand-in is sent:
+ *
+ *   known      the hash is known; one lookup, no upload
+ *   unknown    404 on the lookup, then upload and poll the analysis from
+ *              queued (one engine done) to completed (three engines)
+ *   bad-key    401 on every request; the scan fails with ScanException
+ *   limited    at most 2 requests per second, 429 beyond that; scans
+ *              retry after the server's refusals and all succeed
+ *
+ * Not a benchmark; run it with
+ *
+ *   java -cp target/benchmarks.jar vt.bench.ApiStubHarness
+ *
+ * Prints one line per check and exits with status 1 if any fails.
+ */
+
+package vt.bench;
+
+// Import libraries
+// httpserver - stand-in API server
+// io, nio - responses and the uploaded file
+// util.concurrent - request counters
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public final class ApiStubHarness {
+
+    // Constants
+    private static final String KNOWN_SHA256
+            = "275a021bbfb6489e54d471899f7db9d1663fc695ec2fe2a2c4538aabf651fd0f";
+    private static final String UNKNOWN_SHA256
+            = "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String ANALYSIS_ID = "an1";
+    private static final int LIMIT_PER_SECOND = 2;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int FAST_QUOTA = 1000;     // Requests per minute
+    private static final int LIMITED_QUOTA = 60;    // Refills 1 per second
+    private static final int LIMITED_SCANS = 6;
+
+    // /files/{sha256} report of the known file
+    private static final String REPORT = "{\"data\":{\"attributes\":{"
+            + "\"last_analysis_results\":{"
+            + "\"EngineA\":{\"category\":\"malicious\",\"result\":\"Trojan\"},"
+            + "\"EngineB\":{\"category\":\"undetected\",\"result\":null}}}}}";
+
+    // /analyses/{id} while queued, then once completed
+    private static final String QUEUED = "{\"data\":{\"attributes\":{"
+            + "\"status\":\"queued\",\"results\":{"
+            + "\"EngineA\":{\"category\":\"malicious\",\"result\":\"Trojan\"},"
+            + "\"EngineB\":{\"category\":null,\"result\":null}}}}}";
+    private static final String COMPLETED = "{\"data\":{\"attributes\":{"
+            + "\"status\":\"completed\",\"results\":{"
+            + "\"EngineA\":{\"category\":\"malicious\",\"result\":\"Trojan\"},"
+            + "\"EngineB\":{\"category\":\"undetected\",\"result\":null},"
+            + "\"EngineC\":{\"category\":\"timeout\",\"result\":null}}}}}";
+
+    // Standard output as found before Vt silences it
+    private static final PrintStream OUT = System.out;
+
+    // Requests the stand-in answered, by kind
+    private static final AtomicInteger LOOKUPS = new AtomicInteger();
+    private static final AtomicInteger UPLOADS = new AtomicInteger();
+    private static final AtomicInteger POLLS = new AtomicInteger();
+    private static final AtomicInteger REFUSED = new AtomicInteger();
+
+    // System.nanoTime() of the 'limited' key's requests in the last second
+    private static final Deque<Long> LIMITED = new ArrayDeque<Long>();
+
+    private static int failures = 0;
+
+    // Don't instantiate
+    private ApiStubHarness() { }
+
+    public static void main(String[] args) throws Throwable {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", ApiStubHarness::answer);
+        server.start();
+        String url = "http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort();
+        Path file = Files.createTempFile("vt-stub", ".bin");
+        try {
+            known(url);
+            unknown(url, file.toString());
+            badKey(url);
+            limited(url);
+        }
+        finally {
+            Files.deleteIfExists(file);
+            server.stop(0);
+        }
+
+        OUT.println(failures == 0 ? "All checks passed"
+                            : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Known hash: the report is returned from one lookup
+    private static void known(String url) throws Throwable {
+        reset();
+        Object st = scan(backend(url, "known", FAST_QUOTA), "known.exe",
+                         KNOWN_SHA256);
+        check("known: two engine results", (int) Vt.ST_SIZE.invokeExact(st)
+                == 2);
+        check("known: EngineA detected Trojan", "Trojan".equals(
+                (String) Vt.ST_GET.invokeExact(st, "EngineA")));
+        check("known: one lookup, no upload or poll", LOOKUPS.get() == 1
+                && UPLOADS.get() == 0 && POLLS.get() == 0);
+    }
+
+    // Unknown hash: 404, then upload and poll until completed
+    private static void unknown(String url, String absFilePath)
+            throws Throwable {
+        reset();
+        Object st = scan(backend(url, "unknown", FAST_QUOTA), absFilePath,
+                         UNKNOWN_SHA256);
+        check("unknown: three engine results", (int) Vt.ST_SIZE.invokeExact(st)
+                == 3);
+        check("unknown: EngineC timed out", "Timeout".equals(
+                (String) Vt.ST_GET.invokeExact(st, "EngineC")));
+        check("unknown: one lookup, one upload, polled until completed",
+              LOOKUPS.get() == 1 && UPLOADS.get() == 1 && POLLS.get() == 2);
+    }
+
+    // Bad API key: the scan fails with ScanException naming HTTP 401
+    private static void badKey(String url) throws Throwable {
+        reset();
+        try {
+            scan(backend(url, "bad-key", FAST_QUOTA), "known.exe",
+                 KNOWN_SHA256);
+            check("bad-key: scan fails", false);
+        }
+        catch (RuntimeException e) {
+            check("bad-key: scan fails with ScanException",
+                  e.getClass().getName().equals("ScanException"));
+            check("bad-key: message names HTTP 401",
+                  String.valueOf(e.getMessage()).contains("HTTP 401"));
+        }
+    }
+
+    // 2 requests per second: the full per-minute bucket sends a burst the
+    // server refuses with 429; the scans wait for the drained bucket to
+    // refill, retry, and all succeed
+    private static void limited(String url) throws Throwable {
+        reset();
+        Object backend = backend(url, "limited", LIMITED_QUOTA);
+        int reports = 0;
+        for (int i = 0; i < LIMITED_SCANS; i++) {
+            Object st = scan(backend, "known.exe", KNOWN_SHA256);
+            if ((int) Vt.ST_SIZE.invokeExact(st) == 2)
+                reports++;
+        }
+        check("limited: every scan got its report", reports == LIMITED_SCANS);
+        check("limited: server refused requests with 429",
+              REFUSED.get() > 0);
+    }
+
+    // Return new ApiBackend sending 'apiKey' to 'url' at up to 'perMinute'
+    // requests a minute
+    private static Object backend(String url, String apiKey, int perMinute)
+            throws Throwable {
+        Object waiter = (Object) Vt.NEW_WAITER.invokeExact(60L, 0L);
+        Object quota = (Object) Vt.NEW_QUOTA.invokeExact(perMinute,
+                                                         perMinute * 60 * 24);
+        return (Object) Vt.NEW_API_BACKEND.invokeExact(url, apiKey, waiter,
+                                                       quota);
+    }
+
+    // Scan 'absFilePath' with 'sha256' through 'backend' and return the ST
+    // of <engine, result> pairs
+    private static Object scan(Object backend, String absFilePath,
+                               String sha256) throws Throwable {
+        return (Object) Vt.API_SCAN.invokeExact(backend, absFilePath, sha256,
+                                                Vt.ALL_ENGINES);
+    }
+
+    // Answer one request the way VirusTotal would for its API key
+    private static void answer(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+        }
+        String apiKey = exchange.getRequestHeaders().getFirst("x-apikey");
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+
+        if ("bad-key".equals(apiKey)) {
+            send(exchange, 401, "{\"error\":{\"code\":"
+                    + "\"WrongCredentialsError\"}}");
+            return;
+        }
+        if ("limited".equals(apiKey) && !admit()) {
+            REFUSED.incrementAndGet();
+            send(exchange, 429, "{\"error\":{\"code\":"
+                    + "\"QuotaExceededError\"}}");
+            return;
+        }
+
+        if (method.equals("GET") && path.equals("/api/v3/files/"
+                                                        + KNOWN_SHA256)) {
+            LOOKUPS.incrementAndGet();
+            send(exchange, 200, REPORT);
+        }
+        else if (method.equals("GET") && path.startsWith("/api/v3/files/")) {
+            LOOKUPS.incrementAndGet();
+            send(exchange, 404, "{\"error\":{\"code\":\"NotFoundError\"}}");
+        }
+        else if (method.equals("POST") && path.equals("/api/v3/files")) {
+            UPLOADS.incrementAndGet();
+            send(exchange, 200, "{\"data\":{\"type\":\"analysis\","
+                    + "\"id\":\"" + ANALYSIS_ID + "\"}}");
+        }
+        else if (method.equals("GET") && path.equals("/api/v3/analyses/"
+                                                             + ANALYSIS_ID)) {
+            send(exchange, 200, POLLS.incrementAndGet() == 1 ? QUEUED
+                    : COMPLETED);
+        }
+        else
+            send(exchange, 404, "{\"error\":{\"code\":\"NotFoundError\"}}");
+    }
+
+    // Return true if the 'limited' key may send one more request this
+    // second, counting it
+    private static synchronized boolean admit() {
+        long now = System.nanoTime();
+        while (!LIMITED.isEmpty() && now - LIMITED.peekFirst()
+                >= NANOS_PER_SECOND)
+            LIMITED.removeFirst();
+        if (LIMITED.size() >= LIMIT_PER_SECOND)
+            return false;
+        LIMITED.addLast(now);
+        return true;
+    }
+
+    // Send 'json' with HTTP 'status'
+    private static void send(HttpExchange exchange, int status, String json)
+            throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    // Zero the request counters
+    private static synchronized void reset() {
+        LOOKUPS.set(0);
+        UPLOADS.set(0);
+        POLLS.set(0);
+        REFUSED.set(0);
+        LIMITED.clear();
+    }
+
+    // Print whether 'passed' for 'check', counting failures
+    private static void check(String check, boolean passed) {
+        OUT.println((passed ? "PASS  " : "FAIL  ") + check);
+        if (!passed)
+            failures++;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Deterministic stand-ins for the <engine, result> pairs VirusTotal
+ * reports: real engine names (numbered once they run out) and a mix of
+ * results close to a typical report, mostly "Undetected" with some
+ * detections and the error results ScanResult has to recognize.
+ */
+
+package vt.bench;
+
+// Import libraries
+// util - seeded random numbers
+
+import java.util.Random;
+
+
+final class Detections {
+
+    // Engine names as shown on VirusTotal
+    private static final String[] ENGINES = new String[] {
+            "Acronis", "AhnLab-V3", "ALYac", "Antiy-AVL", "Arcabit", "Avast",
+            "Avast-Mobile", "AVG", "Avira (no cloud)", "Baidu",
+            "BitDefender", "BitDefenderFalx", "BitDefenderTheta", "Bkav Pro",
+            "ClamAV", "CMC", "Comodo", "CrowdStrike Falcon", "Cybereason",
+            "Cylance", "Cynet", "Cyren", "DrWeb", "Elastic", "Emsisoft",
+            "eScan", "ESET-NOD32", "F-Secure", "Fortinet", "GData",
+            "Gridinsoft", "Ikarus", "Jiangmin", "K7AntiVirus", "K7GW",
+            "Kaspersky", "Kingsoft", "Lionic", "Malwarebytes", "MAX",
+            "MaxSecure", "McAfee", "McAfee-GW-Edition", "Microsoft",
+            "NANO-Antivirus", "Palo Alto Networks", "Panda", "QuickHeal",
+            "Rising", "Sangfor Engine Zero", "SecureAge", "SentinelOne",
+            "Sophos", "SUPERAntiSpyware", "Symantec", "SymantecMobileInsight",
+            "TACHYON", "Tencent", "Trapmine", "Trellix (FireEye)",
+            "TrendMicro", "TrendMicro-HouseCall", "Trustlook", "VBA32",
+            "VIPRE", "ViRobot", "VirIT", "Webroot", "Yandex", "Zillya",
+            "ZoneAlarm by Check Point", "Zoner"
+    };
+
+    // Results and how often each appears (in percent)
+    private static final String[] RESULTS = new String[] {
+            "Undetected", "Trojan.GenericKD.46542345", "Timeout",
+            "Unable to process file type", "Confirmed timeout", ""
+    };
+    private static final int[] PERCENT = new int[] { 80, 10, 4, 3, 2, 1 };
+
+    // Instance variables
+    final String[] engines;     // Engine names, all different
+    final String[] verdicts;    // Result of each engine
+
+    // Specified constructor makes 'count' pairs, the same on every run
+    Detections(int count) {
+        engines = new String[count];
+        verdicts = new String[count];
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            engines[i] = i < ENGINES.length ? ENGINES[i]
+                    : ENGINES[i % ENGINES.length] + "-" + (i / ENGINES.length);
+            verdicts[i] = result(random.nextInt(100));
+        }
+    }
+
+    // Return engine near the middle, as picked with --engine
+    String middleEngine() {
+        return engines[engines.length / 2];
+    }
+
+    // Return result for percentile 'p'
+    private static String result(int p) {
+        for (int i = 0; i < PERCENT.length; i++) {
+            if (p < PERCENT[i])
+                return RESULTS[i];
+            p -= PERCENT[i];
+        }
+        return RESULTS[0];
+    }
+}
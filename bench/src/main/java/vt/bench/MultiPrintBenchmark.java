@@ -0,0 +1,54 @@
+/*
+ * ScanResult.multiPrint rendering a report as the colored two-column table,
+ * with standard output going nowhere so only the rendering is measured.
+ */
+
+package vt.bench;
+
+// Import libraries
+// jmh - benchmark harness
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MultiPrintBenchmark {
+
+    // Columns of the table, as in ResultWriter
+    private static final int COLUMNS = 2;
+
+    // Number of engine scans
+    @Param({ "70", "1000", "100000" })
+    public int count;
+
+    private Object[] scanResults;   // ScanResult[] to print
+
+    @Setup
+    public void setUp() throws Throwable {
+        Detections detections = new Detections(count);
+        scanResults = Vt.scanResults(detections.engines, detections.verdicts);
+    }
+
+    // Print the whole table
+    @Benchmark
+    public void multiPrint() throws Throwable {
+        Vt.MULTI_PRINT.invokeExact(scanResults, COLUMNS);
+    }
+}
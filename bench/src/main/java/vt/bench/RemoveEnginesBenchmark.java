@@ -0,0 +1,63 @@
+/*
+ * VT.removeEngines keeping one engine of a report. It empties the ST it is
+ * given, so every call works on a fresh copy; copy() measures the copy
+ * alone so it can be subtracted.
+ */
+
+package vt.bench;
+
+// Import libraries
+// jmh - benchmark harness
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RemoveEnginesBenchmark {
+
+    // Number of <engine, result> pairs
+    @Param({ "70", "1000", "100000" })
+    public int count;
+
+    private Detections detections;  // Raw pairs
+    private Object selectEngines;   // Engine kept (EngineSelection)
+
+    @Setup
+    public void setUp() throws Throwable {
+        detections = new Detections(count);
+        selectEngines = (Object) Vt.PARSE_ENGINES.invokeExact(
+                detections.middleEngine());
+    }
+
+    // Build the ST only
+    @Benchmark
+    public Object copy() throws Throwable {
+        return Vt.st(detections.engines, detections.verdicts);
+    }
+
+    // Build the ST and remove every engine but 'selectEngines'
+    @Benchmark
+    public Object removeEngines() throws Throwable {
+        Object st = Vt.st(detections.engines, detections.verdicts);
+        String kept = (String) Vt.REMOVE_ENGINES.invokeExact(selectEngines,
+                                                             st);
+        return st;
+    }
+}
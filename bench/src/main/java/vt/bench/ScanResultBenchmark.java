@@ -0,0 +1,59 @@
+/*
+ * Turning raw <engine, result> pairs into ScanResults: the constructor
+ * alone (including its ERROR_MESSAGES loop), and VT.selectResults, which
+ * walks the ST of a whole report.
+ */
+
+package vt.bench;
+
+// Import libraries
+// jmh - benchmark harness
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScanResultBenchmark {
+
+    // Number of <engine, result> pairs
+    @Param({ "70", "1000", "100000" })
+    public int count;
+
+    private Detections detections;  // Raw pairs
+    private Object st;              // Same pairs as an ST
+
+    @Setup
+    public void setUp() throws Throwable {
+        detections = new Detections(count);
+        st = Vt.st(detections.engines, detections.verdicts);
+    }
+
+    // new ScanResult(engine, result) for every pair
+    @Benchmark
+    public Object[] construct() throws Throwable {
+        return Vt.scanResults(detections.engines, detections.verdicts);
+    }
+
+    // VT.selectResults(rawScanResults, "") over the whole report
+    @Benchmark
+    public Object[] selectResults() throws Throwable {
+        return (Object[]) Vt.SELECT_RESULTS.invokeExact(st, Vt.ALL_ENGINES);
+    }
+}
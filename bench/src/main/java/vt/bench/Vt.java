@@ -0,0 +1,187 @@
+/*
+ * Handles on vt's classes for the benchmarks and ApiStubHarness. vt lives
+ * in the unnamed package, which code in a named package (as JMH requires)
+ * can't refer to by name, so its methods are looked up once as static
+ * final MethodHandles that the JIT treats as constants.
+ */
+
+package vt.bench;
+
+// Import libraries
+// invoke - method handles
+// io - silence standard output
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+final class Vt {
+
+    // Classes of vt
+    static final Class<?> SCAN_RESULT;
+    static final Class<?> SCAN_RESULT_ARRAY;
+    static final Class<?> ST;
+    static final Class<?> ENGINE_SELECTION;
+
+    // EngineSelection.ALL
+    static final Object ALL_ENGINES;
+
+    // EngineSelection.parse(String list) -> Object
+    static final MethodHandle PARSE_ENGINES;
+
+    // new ScanResult(String engine, String result) -> Object
+    static final MethodHandle NEW_SCAN_RESULT;
+
+    // new ST() -> Object, ST.put(Object st, String key, String value)
+    static final MethodHandle NEW_ST;
+    static final MethodHandle ST_PUT;
+
+    // ST.get(Object st, String key) -> String, ST.size(Object st) -> int
+    static final MethodHandle ST_GET;
+    static final MethodHandle ST_SIZE;
+
+    // VT.selectResults(Object st, Object engines) -> Object[]
+    static final MethodHandle SELECT_RESULTS;
+
+    // VT.removeEngines(Object engines, Object st) -> String
+    static final MethodHandle REMOVE_ENGINES;
+
+    // ScanResult.multiPrint(Object[] scanResults, int column)
+    static final MethodHandle MULTI_PRINT;
+
+    // new Waiter(long phaseTimeoutSeconds, long deadlineSeconds) -> Object
+    static final MethodHandle NEW_WAITER;
+
+    // new QuotaScheduler(int perMinute, int perDay) -> Object
+    static final MethodHandle NEW_QUOTA;
+
+    // new ApiBackend(String baseUrl, String apiKey, Object waiter,
+    // Object quota) -> Object
+    static final MethodHandle NEW_API_BACKEND;
+
+    // ApiBackend.scan(Object backend, String absFilePath, String sha256,
+    // Object engines) -> Object (ST)
+    static final MethodHandle API_SCAN;
+
+    static {
+        // vt prints through StdOut, which keeps the System.out it finds
+        // when first used; point it at nothing before that happens
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            SCAN_RESULT = Class.forName("ScanResult");
+            SCAN_RESULT_ARRAY = SCAN_RESULT.arrayType();
+            ST = Class.forName("ST");
+            ENGINE_SELECTION = Class.forName("EngineSelection");
+            Class<?> vt = Class.forName("VT");
+            Class<?> waiter = Class.forName("Waiter");
+            Class<?> quota = Class.forName("QuotaScheduler");
+            Class<?> apiBackend = Class.forName("ApiBackend");
+
+            ALL_ENGINES = ENGINE_SELECTION.getField("ALL").get(null);
+            PARSE_ENGINES = lookup.findStatic(
+                    ENGINE_SELECTION, "parse",
+                    MethodType.methodType(ENGINE_SELECTION, String.class))
+                    .asType(MethodType.methodType(Object.class,
+                                                  String.class));
+            NEW_SCAN_RESULT = lookup.findConstructor(
+                    SCAN_RESULT, MethodType.methodType(void.class,
+                                                       String.class,
+                                                       String.class))
+                    .asType(MethodType.methodType(Object.class, String.class,
+                                                  String.class));
+            NEW_ST = lookup.findConstructor(
+                    ST, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            ST_PUT = lookup.findVirtual(
+                    ST, "put", MethodType.methodType(void.class,
+                                                     Comparable.class,
+                                                     Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class,
+                                                  String.class, String.class));
+            ST_GET = lookup.findVirtual(
+                    ST, "get", MethodType.methodType(Object.class,
+                                                     Comparable.class))
+                    .asType(MethodType.methodType(String.class, Object.class,
+                                                  String.class));
+            ST_SIZE = lookup.findVirtual(
+                    ST, "size", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            SELECT_RESULTS = lookup.findStatic(
+                    vt, "selectResults",
+                    MethodType.methodType(SCAN_RESULT_ARRAY, ST,
+                                          ENGINE_SELECTION))
+                    .asType(MethodType.methodType(Object[].class,
+                                                  Object.class,
+                                                  Object.class));
+            REMOVE_ENGINES = lookup.findStatic(
+                    vt, "removeEngines",
+                    MethodType.methodType(String.class, ENGINE_SELECTION,
+                                          ST))
+                    .asType(MethodType.methodType(String.class, Object.class,
+                                                  Object.class));
+            MULTI_PRINT = lookup.findStatic(
+                    SCAN_RESULT, "multiPrint",
+                    MethodType.methodType(void.class, SCAN_RESULT_ARRAY,
+                                          int.class))
+                    .asType(MethodType.methodType(void.class, Object[].class,
+                                                  int.class));
+            NEW_WAITER = lookup.findConstructor(
+                    waiter, MethodType.methodType(void.class, long.class,
+                                                  long.class))
+                    .asType(MethodType.methodType(Object.class, long.class,
+                                                  long.class));
+            NEW_QUOTA = lookup.findConstructor(
+                    quota, MethodType.methodType(void.class, int.class,
+                                                 int.class))
+                    .asType(MethodType.methodType(Object.class, int.class,
+                                                  int.class));
+            NEW_API_BACKEND = lookup.findConstructor(
+                    apiBackend, MethodType.methodType(void.class,
+                                                      String.class,
+                                                      String.class, waiter,
+                                                      quota))
+                    .asType(MethodType.methodType(Object.class, String.class,
+                                                  String.class, Object.class,
+                                                  Object.class));
+            API_SCAN = lookup.findVirtual(
+                    apiBackend, "scan", MethodType.methodType(ST,
+                                                              String.class,
+                                                              String.class,
+                                                              ENGINE_SELECTION))
+                    .asType(MethodType.methodType(Object.class, Object.class,
+                                                  String.class,
+                                                  String.class,
+                                                  Object.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Don't instantiate
+    private Vt() { }
+
+    // Return new ST holding <engines[i], verdicts[i]> pairs
+    static Object st(String[] engines, String[] verdicts) throws Throwable {
+        Object st = (Object) NEW_ST.invokeExact();
+        for (int i = 0; i < engines.length; i++)
+            ST_PUT.invokeExact(st, engines[i], verdicts[i]);
+        return st;
+    }
+
+    // Return ScanResult[] for <engines[i], verdicts[i]> pairs
+    static Object[] scanResults(String[] engines, String[] verdicts)
+            throws Throwable {
+        Object[] scanResults = (Object[]) java.lang.reflect.Array.newInstance(
+                SCAN_RESULT, engines.length);
+        for (int i = 0; i < engines.length; i++)
+            scanResults[i] = (Object) NEW_SCAN_RESULT.invokeExact(engines[i],
+                                                                  verdicts[i]);
+        return scanResults;
+    }
+}
@@ -1,2 +1,2 @@
-lib=".;.\lib\introcs.jar;.\lib\stdlib.jar;.\lib\jansi-2.1.0.jar;.\lib\selenium-server-4.1.1.jar"
-javac -cp $lib StdOut.java && javac -cp $lib ScanResult.java && javac -cp $lib VT.java && java -cp $lib VT $@
\ No newline at end of file
+jar="target/vt.jar"
+[ -f $jar ] || mvn -B -q package && java -XX:SharedArchiveFile=target/vt.jsa -Xlog:cds=off -jar $jar $@
\ No newline at end of file